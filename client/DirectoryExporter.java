@@ -0,0 +1,128 @@
+package p4.client;
+
+import p4.server.DirectoryExport;
+import p4.server.ExportChunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+
+/**
+ * The {@code DirectoryExporter} class writes the whole directory to a file, chunk by chunk, with
+ * {@code exportChunk}.
+ * <p>
+ * Every chunk is copied into a {@code p4.export.bufferSize} (1 MB) buffer that is written to the file through a
+ * {@link FileChannel} whenever it is full, so memory stays the same for any directory size. All chunks come from
+ * one server, because the export cursor belongs to that server. A file ending in {@code .bin} gets the binary
+ * format (see {@link DirectoryExport}), any other file NDJSON. The file is written to a temporary file first and
+ * moved in place at the end, so a failed export never leaves a half written file under the given name.
+ * </p>
+ *
+ * @author Shaznin Sultana
+ * @version 1.0
+ */
+public class DirectoryExporter {
+    private static final int PAGE_SIZE = Integer.getInteger("p4.export.pageSize", 5000);
+    private static final int BUFFER_SIZE = Integer.getInteger("p4.export.bufferSize", 1 << 20);
+
+    private final IdClusterClient client;
+
+    /**
+     * Constructs an exporter.
+     *
+     * @param client the client to read the directory with.
+     */
+    public DirectoryExporter(IdClusterClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Exports the directory to a file.
+     *
+     * @param file the file to write.
+     * @throws IOException     if the file cannot be written.
+     * @throws RemoteException if the server fails during the export.
+     */
+    public void run(Path file) throws IOException, RemoteException {
+        String format = file.getFileName().toString().toLowerCase().endsWith(".bin")
+                ? DirectoryExport.BINARY : DirectoryExport.NDJSON;
+        String host = client.chooseReadHost();
+        Path temporary = file.resolveSibling(file.getFileName() + ".part");
+        long startTime = System.currentTimeMillis();
+        long count = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format.equals(DirectoryExport.BINARY)) {
+                buffer.putInt(DirectoryExport.MAGIC);
+                buffer.putInt(DirectoryExport.VERSION);
+            }
+            String cursor = "0";
+            do {
+                String chunkCursor = cursor;
+                /**
+                 * every chunk is a listing, so a large export runs into the server's listing limits and waits
+                 */
+                ExportChunk chunk = client.callOnWhenAdmitted(host,
+                        stub -> stub.exportChunk(chunkCursor, PAGE_SIZE, format));
+                put(channel, buffer, chunk.getData());
+                count += chunk.getCount();
+                cursor = chunk.getNextCursor();
+                if (chunk.getCount() > 0 && count % 100000 < chunk.getCount()) {
+                    System.out.println("exported " + count + " users");
+                }
+            } while (!cursor.equals("0"));
+            if (format.equals(DirectoryExport.BINARY)) {
+                ByteBuffer end = ByteBuffer.allocate(9);
+                end.put((byte) 0);
+                end.putLong(count);
+                put(channel, buffer, end.array());
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("exported " + count + " users from " + host + " to " + file + " in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Copies bytes into the buffer, writing the buffer to the file whenever it is full.
+     *
+     * @param channel the file.
+     * @param buffer  the buffer.
+     * @param data    the bytes.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void put(FileChannel channel, ByteBuffer buffer, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(buffer.remaining(), data.length - offset);
+            buffer.put(data, offset, length);
+            offset += length;
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+        }
+    }
+
+    /**
+     * Writes what is in the buffer to the file and empties the buffer.
+     *
+     * @param channel the file.
+     * @param buffer  the buffer.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,340 @@
+package p4.client;
+
+import p4.server.LookupResult;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The {@code IdAsyncClient} class is an asynchronous front of {@link IdClusterClient}: every call returns a
+ * {@link CompletableFuture} right away, so one application thread can keep many requests in flight.
+ * <p>
+ * RMI calls block, so the calls run on a shared pool of {@code p4.client.asyncThreads} threads (64), which bounds
+ * the number of calls on the wire at once; further calls wait in the pool's queue. Lookups and reverse lookups of
+ * the same name that are asked while one is already on its way share its answer instead of making another call,
+ * so a burst of identical lookups costs one call. Every caller gets its own copy of the shared future, so one
+ * caller cancelling or completing it does not affect the others. A failed call completes its future exceptionally
+ * with the {@link RemoteException}.
+ * </p>
+ * <p>
+ * Lookups of different names are not sent one by one: those asked within {@code p4.client.batchLinger}
+ * milliseconds (2) of each other are sent together with one {@code lookupMany} call, or {@code reverseLookupMany}
+ * for reverse lookups, of at most {@code p4.client.maxBatch} (256) names; a full batch is sent at once. Each
+ * lookup is answered in the same form as a single lookup, and a lookup that finds no other within the linger
+ * time is sent as a single lookup. A linger of 0 sends every lookup on its own.
+ * </p>
+ *
+ * @author Shaznin Sultana
+ * @version 1.0
+ */
+public class IdAsyncClient implements AutoCloseable {
+    private static final int THREADS = Integer.getInteger("p4.client.asyncThreads", 64);
+    /**
+     * how long a lookup waits for others to be sent with it, in milliseconds
+     */
+    private static final long BATCH_LINGER = Long.getLong("p4.client.batchLinger", 2);
+    private static final int MAX_BATCH = Integer.getInteger("p4.client.maxBatch", 256);
+
+    private final IdClusterClient client;
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<String>> pendingReads =
+            new ConcurrentHashMap<String, CompletableFuture<String>>();
+    private final ScheduledExecutorService batchTimer;
+    private final LookupBatcher lookups;
+    private final LookupBatcher reverseLookups;
+
+    /**
+     * Constructs an asynchronous client.
+     *
+     * @param client the client to make the calls with.
+     */
+    public IdAsyncClient(IdClusterClient client) {
+        this.client = client;
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threads = task -> {
+            Thread thread = new Thread(task, "id-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(THREADS, threads);
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "id-async-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lookups = new LookupBatcher(client::lookupMany, client::lookup);
+        this.reverseLookups = new LookupBatcher(client::reverseLookupMany, client::reverseLookup);
+    }
+
+    /**
+     * Creates a user on the coordinator.
+     *
+     * @param loginName the login name of the new user.
+     * @param realName  the real name of the new user.
+     * @param password  the password of the new user.
+     * @return the uuid of the new user, or an error message.
+     */
+    public CompletableFuture<String> createUser(String loginName, String realName, String password) {
+        return submit(() -> client.createUser(loginName, realName, password));
+    }
+
+    /**
+     * Changes a user's login name on the coordinator.
+     *
+     * @param loginName    the current login name.
+     * @param newLoginName the new login name.
+     * @param password     the user's password.
+     * @return the server's response.
+     */
+    public CompletableFuture<String> modify(String loginName, String newLoginName, String password) {
+        return submit(() -> client.modify(loginName, newLoginName, password));
+    }
+
+    /**
+     * Deletes a user on the coordinator.
+     *
+     * @param loginName the login name of the user.
+     * @param password  the user's password.
+     * @return the server's response.
+     */
+    public CompletableFuture<String> delete(String loginName, String password) {
+        return submit(() -> client.delete(loginName, password));
+    }
+
+    /**
+     * Looks a user up by login name, sharing the answer of an identical lookup already on its way and sending it
+     * in a batch with the lookups asked at about the same time.
+     *
+     * @param loginName the login name.
+     * @return the matching users.
+     */
+    public CompletableFuture<String> lookup(String loginName) {
+        if (BATCH_LINGER <= 0) {
+            return shared("l:" + loginName, () -> submit(() -> client.lookup(loginName)));
+        }
+        return shared("l:" + loginName, () -> lookups.add(loginName));
+    }
+
+    /**
+     * Looks a user up by uuid, sharing the answer of an identical lookup already on its way and sending it in a
+     * batch with the reverse lookups asked at about the same time.
+     *
+     * @param uuid the uuid.
+     * @return the matching users.
+     */
+    public CompletableFuture<String> reverseLookup(String uuid) {
+        if (BATCH_LINGER <= 0) {
+            return shared("r:" + uuid, () -> submit(() -> client.reverseLookup(uuid)));
+        }
+        return shared("r:" + uuid, () -> reverseLookups.add(uuid));
+    }
+
+    /**
+     * Lists the login names of all users.
+     *
+     * @return the login names.
+     */
+    public CompletableFuture<String> allUsers() {
+        return shared("g:users", () -> submit(client::allUsers));
+    }
+
+    /**
+     * Lists the uuids of all users.
+     *
+     * @return the uuids.
+     */
+    public CompletableFuture<String> allUUIds() {
+        return shared("g:uuids", () -> submit(client::allUUIds));
+    }
+
+    /**
+     * Lists every user with all details.
+     *
+     * @return the users.
+     */
+    public CompletableFuture<String> all() {
+        return shared("g:all", () -> submit(client::all));
+    }
+
+    /**
+     * Stops the threads of the client. Calls already made still complete, and lookups waiting for a batch are
+     * sent first.
+     */
+    @Override
+    public void close() {
+        lookups.flush();
+        reverseLookups.flush();
+        batchTimer.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * A blocking call of the cluster client.
+     */
+    private interface ClientCall {
+        String call() throws RemoteException;
+    }
+
+    /**
+     * A batch lookup of the cluster client.
+     */
+    private interface BatchCall {
+        List<LookupResult> call(List<String> keys) throws RemoteException;
+    }
+
+    /**
+     * A lookup of one key with the cluster client.
+     */
+    private interface KeyCall {
+        String call(String key) throws RemoteException;
+    }
+
+    /**
+     * Runs a call on the pool.
+     *
+     * @param call the call.
+     * @return the future of its result.
+     */
+    private CompletableFuture<String> submit(ClientCall call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Starts a read unless the same read is already on its way, in which case a copy of its future is returned.
+     * The read is forgotten once it completes, so a later read asks the server again.
+     *
+     * @param key   the name of the read and its argument.
+     * @param start starts the read.
+     * @return a copy of the future of its result.
+     */
+    private CompletableFuture<String> shared(String key, Supplier<CompletableFuture<String>> start) {
+        CompletableFuture<String> created = new CompletableFuture<String>();
+        CompletableFuture<String> pending = pendingReads.putIfAbsent(key, created);
+        if (pending != null) {
+            return pending.copy();
+        }
+        CompletableFuture<String> started;
+        try {
+            started = start.get();
+        } catch (RuntimeException e) {
+            /**
+             * the read never started (for example the client is closed), so later reads must not wait for it
+             */
+            pendingReads.remove(key, created);
+            created.completeExceptionally(e);
+            return created.copy();
+        }
+        started.whenComplete((result, failure) -> {
+            pendingReads.remove(key, created);
+            if (failure != null) {
+                created.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created.copy();
+    }
+
+    /**
+     * Formats the result of one key of a batch lookup like the answer of a single lookup.
+     *
+     * @param result the result.
+     * @return the matching users.
+     */
+    private static String format(LookupResult result) {
+        if (!result.isFound()) {
+            return "[]";
+        }
+        return "[{ uuid: " + result.getUuid() + ",login name: " + result.getLoginName() + ", real name: "
+                + result.getRealName() + "}]";
+    }
+
+    /**
+     * Collects the lookups of one kind asked within the linger time and sends them with one batch call, or with
+     * a single lookup if only one was asked.
+     */
+    private class LookupBatcher {
+        private final BatchCall call;
+        private final KeyCall single;
+        private List<String> keys = new ArrayList<String>();
+        private List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+
+        LookupBatcher(BatchCall call, KeyCall single) {
+            this.call = call;
+            this.single = single;
+        }
+
+        /**
+         * Adds a lookup to the next batch.
+         *
+         * @param key the login name or uuid.
+         * @return the future of its answer.
+         */
+        synchronized CompletableFuture<String> add(String key) {
+            CompletableFuture<String> future = new CompletableFuture<String>();
+            keys.add(key);
+            futures.add(future);
+            if (keys.size() >= MAX_BATCH) {
+                flush();
+            } else if (keys.size() == 1) {
+                batchTimer.schedule(this::flush, BATCH_LINGER, TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+
+        /**
+         * Sends the lookups collected so far on the pool.
+         */
+        synchronized void flush() {
+            if (keys.isEmpty()) {
+                return;
+            }
+            List<String> batchKeys = keys;
+            List<CompletableFuture<String>> batchFutures = futures;
+            keys = new ArrayList<String>();
+            futures = new ArrayList<CompletableFuture<String>>();
+            Runnable send = () -> {
+                try {
+                    if (batchKeys.size() == 1) {
+                        batchFutures.get(0).complete(single.call(batchKeys.get(0)));
+                        return;
+                    }
+                    List<LookupResult> results = call.call(batchKeys);
+                    for (int i = 0; i < batchFutures.size(); i++) {
+                        batchFutures.get(i).complete(format(results.get(i)));
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    for (CompletableFuture<String> future : batchFutures) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            };
+            try {
+                executor.execute(send);
+            } catch (RejectedExecutionException e) {
+                for (CompletableFuture<String> future : batchFutures) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
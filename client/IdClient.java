@@ -2,16 +2,19 @@ package p4.client;
 
 import org.apache.commons.cli.*;
 
+import p4.server.ChangeBatch;
+import p4.server.ChangeEvent;
 import p4.server.IdServerInterfaceForClient;
 
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.SocketTimeoutException;
-import java.rmi.NotBoundException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.UnmarshalException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.util.HashSet;
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  * The {@code IdClient} class represents a client
@@ -26,7 +29,7 @@ public class IdClient {
     /**
      * saving server list
      */
-    static String host;
+    static String host = "localhost";
     static int registryPort;
 
 
@@ -57,107 +60,59 @@ public class IdClient {
                 host = line.getOptionValue("s");
                 System.out.println("Client running.");
             }
+            /**
+             * one client for every command, with the stubs of all given servers
+             */
+            IdClusterClient client = new IdClusterClient(Arrays.asList(host.split(",")), registryPort);
 
-            if (line.hasOption("d")) {
-                if (!line.hasOption("p")) {
-                    throw new ParseException("Missing required arg --password");
+            if (line.hasOption("i")) {
+                int jobs = Integer.parseInt(line.getOptionValue("j", "1"));
+                IdClientSession session = new IdClientSession(client, jobs);
+                if (line.getOptionValue("i") == null) {
+                    session.run(new InputStreamReader(System.in), System.console() != null);
+                } else {
+                    try (Reader reader = new FileReader(line.getOptionValue("i"))) {
+                        session.run(reader, false);
+                    }
                 }
-                String value = line.getOptionValue("d");
-
-                Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                String response = stub.delete(value, line.getOptionValue("p"));
-                System.out.println("response: " + response);
-
+                return;
             }
 
-            if (line.hasOption("l")) {
-                Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                String response = stub.lookup(line.getOptionValue("l"));
-                System.out.println("response: " + response);
+            if (line.hasOption("x")) {
+                new DirectoryExporter(client).run(Paths.get(line.getOptionValue("x")));
+                return;
             }
-            if (line.hasOption("r")) {
-                Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                String response = stub.reverseLookup(line.getOptionValue("r"));
-                System.out.println("response: " + response);
 
+            if (line.hasOption("b")) {
+                new UserImporter(client).run(Paths.get(line.getOptionValue("b")));
+                return;
             }
-            if (line.hasOption("g")) {
-                String value = line.getOptionValue("g");
-                if (value.equals("users")) {
-                    System.out.println("List of all users");
-
-                    Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                    IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                    String response = stub.allUsers();
-                    System.out.println("response: " + response);
-
-                }
-                if (value.equals("uuids")) {
-                    System.out.println("List of all UUIDs");
-
-                    Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                    IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                    String response = stub.allUUIds();
-                    System.out.println("response: " + response);
-
-                }
-                if (value.equals("all")) {
-                    System.out.println("List of all UUIDs and users details:");
-
-                    Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                    IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                    String response = stub.all();
-                    System.out.println("response: " + response);
 
+            if (line.hasOption("e")) {
+                for (String server : host.split(",")) {
+                    String report = client.callOn(server, IdServerInterfaceForClient::getServerReport);
+                    System.out.print(server + ":\n" + report);
                 }
+                return;
             }
 
-            if (line.hasOption("m")) {
-                if (!line.hasOption("p")) {
-                    throw new ParseException("Missing required arg --password");
-                }
-                String[] values = line.getOptionValues("m");
-
-                Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                String response = stub.modify(values[0], values[1], line.getOptionValue("p"));
-                System.out.println("response: " + response);
-
-            }
-
-            if (line.hasOption("c")) {
-                String realName;
-                String loginName;
-                String password = null;
-
-                String[] values = line.getOptionValues("c");
-                loginName = values[0];
-                if (values.length > 1) {
-                    // Concatenate multiple real names into a single string
-                    StringBuilder realNameBuilder = new StringBuilder();
-                    for (int i = 1; i < values.length; i++) {
-                        realNameBuilder.append(values[i]);
-                        if (i < values.length - 1) {
-                            realNameBuilder.append(" ");
-                        }
+            System.out.print(runCommand(line, client));
+
+            if (line.hasOption("f")) {
+                String consumerId = line.getOptionValue("f");
+                /**
+                 * printing the changes until the client is stopped, committing after every batch
+                 */
+                while (true) {
+                    ChangeBatch batch = client.getChanges(consumerId, 100, 10000);
+                    if (batch.isTruncated()) {
+                        System.out.println("changes are no longer available, reload the directory with -g all");
                     }
-                    realName = realNameBuilder.toString();
-                } else {
-                    realName = System.getProperty("user.name");
-                }
-                if (line.hasOption("p")) {
-                    password = line.getOptionValue("p");
+                    for (ChangeEvent event : batch.getEvents()) {
+                        System.out.println(event);
+                    }
+                    client.commitChanges(consumerId, batch.getNextOffset());
                 }
-
-                Registry registry = LocateRegistry.getRegistry(host, registryPort);
-                IdServerInterfaceForClient stub = (IdServerInterfaceForClient) registry.lookup("IdServerForClient");
-                String response = stub.createUser(loginName, realName, password);
-                //String response = stub.helloServer();
-                System.out.println("response: " + response);
-
             }
 
             // process other options...
@@ -176,27 +131,114 @@ public class IdClient {
             // throw new RuntimeException(e);
             System.out.println("Remote Exception:" + e.getMessage());
             e.printStackTrace();
-        } catch (NotBoundException e) {
-            // throw new RuntimeException(e);
-            System.out.println("Not Bound Exception:" + e.getMessage());
-            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("Cannot read the file: " + e.getMessage());
         }
 
     }
 
-//    private static String getRandomServer() {
-//        // Convert HashSet to an array
-//        String[] array = serverList.toArray(new String[0]);
-//
-//        // Generate a random index
-//        Random random = new Random();
-//        int randomIndex = random.nextInt(array.length);
-//
-//        // Retrieve the element at the random index
-//        String randomItem = array[randomIndex];
-//        System.out.println("Random server picked: " + randomItem);
-//        return randomItem;
-//    }
+    /**
+     * Runs the command given by the parsed options, one of create, modify, delete, lookup, reverse lookup or get,
+     * and collects what it prints. It is used for a single command and for every line of a session.
+     *
+     * @param line   the parsed options.
+     * @param client the client to send the command with.
+     * @return the output of the command.
+     * @throws ParseException  if an argument is missing.
+     * @throws RemoteException if the call fails.
+     */
+    static String runCommand(CommandLine line, IdClusterClient client) throws ParseException, RemoteException {
+        StringBuilder out = new StringBuilder();
+        if (line.hasOption("d")) {
+            if (!line.hasOption("p")) {
+                throw new ParseException("Missing required arg --password");
+            }
+            String value = line.getOptionValue("d");
+            String response = client.delete(value, line.getOptionValue("p"));
+            out.append("response: ").append(response).append("\n");
+
+        }
+
+        if (line.hasOption("l")) {
+            String response;
+            if (line.hasOption("t")) {
+                response = client.lookup(line.getOptionValue("l"), Long.parseLong(line.getOptionValue("t")));
+            } else {
+                response = client.lookup(line.getOptionValue("l"));
+            }
+            out.append("response: ").append(response).append("\n");
+        }
+        if (line.hasOption("r")) {
+            String response;
+            if (line.hasOption("t")) {
+                response = client.reverseLookup(line.getOptionValue("r"), Long.parseLong(line.getOptionValue("t")));
+            } else {
+                response = client.reverseLookup(line.getOptionValue("r"));
+            }
+            out.append("response: ").append(response).append("\n");
+
+        }
+        if (line.hasOption("g")) {
+            String value = line.getOptionValue("g");
+            if (value.equals("users")) {
+                out.append("List of all users\n");
+                String response = client.allUsers();
+                out.append("response: ").append(response).append("\n");
+
+            }
+            if (value.equals("uuids")) {
+                out.append("List of all UUIDs\n");
+                String response = client.allUUIds();
+                out.append("response: ").append(response).append("\n");
+
+            }
+            if (value.equals("all")) {
+                out.append("List of all UUIDs and users details:\n");
+                String response = client.all();
+                out.append("response: ").append(response).append("\n");
+
+            }
+        }
+
+        if (line.hasOption("m")) {
+            if (!line.hasOption("p")) {
+                throw new ParseException("Missing required arg --password");
+            }
+            String[] values = line.getOptionValues("m");
+            String response = client.modify(values[0], values[1], line.getOptionValue("p"));
+            out.append("response: ").append(response).append("\n");
+
+        }
+
+        if (line.hasOption("c")) {
+            String realName;
+            String loginName;
+            String password = null;
+
+            String[] values = line.getOptionValues("c");
+            loginName = values[0];
+            if (values.length > 1) {
+                // Concatenate multiple real names into a single string
+                StringBuilder realNameBuilder = new StringBuilder();
+                for (int i = 1; i < values.length; i++) {
+                    realNameBuilder.append(values[i]);
+                    if (i < values.length - 1) {
+                        realNameBuilder.append(" ");
+                    }
+                }
+                realName = realNameBuilder.toString();
+            } else {
+                realName = System.getProperty("user.name");
+            }
+            if (line.hasOption("p")) {
+                password = line.getOptionValue("p");
+            }
+            String response = client.createUser(loginName, realName, password);
+            out.append("response: ").append(response).append("\n");
+
+        }
+        return out.toString();
+    }
 
     /**
      * Prints help (a summary of command line queries) in a formatted way
@@ -223,8 +265,19 @@ public class IdClient {
         options.addOption("l", "lookup", true, "lookup an account with the given login name");
         options.addOption("r", "reverse-lookup", true, "lookup an account with the given UUID");
         options.addOption("g", "get", true, "obtains list of all login names or UUIDs or user,UUID and description");
-        options.addOption("s", "server", true, "takes serverhost to connect");
+        options.addOption("s", "server", true, "takes serverhost to connect, or a comma separated list of them");
         options.addOption("n", "numport", true, "takes port number to connect");
+        options.addOption("t", "staleness", true, "maximum staleness in milliseconds accepted for a lookup");
+        options.addOption("f", "follow", true, "print the directory changes for a consumer name, from its last offset");
+        options.addOption("j", "jobs", true, "number of session commands running at once (default 1)");
+        options.addOption("b", "import", true, "create the users of a CSV or NDJSON file");
+        options.addOption("x", "export", true, "write all users to a file, NDJSON or binary for a .bin file");
+        options.addOption("e", "report", false, "print the runtime report of every given server");
+
+        // a session reads the commands from the given file, or from the standard input without one
+        Option sessionOption = new Option("i", "session", true, "run many commands, one per line, over one connection");
+        sessionOption.setOptionalArg(true);
+        options.addOption(sessionOption);
 
         // this option requires one value (but we will only look for it if a password is
         // required)
@@ -0,0 +1,187 @@
+package p4.client;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code IdClientSession} class runs many client commands with one {@link IdClusterClient}, so a script pays
+ * for one JVM start, one registry lookup and one SSL handshake per server instead of one per command.
+ * <p>
+ * Every line is a command written with the same options as {@code IdClient}, for example
+ * {@code -c alice Alice Smith -p secret} or {@code -l alice}, without {@code -s} and {@code -n}. Double quotes
+ * keep spaces inside a value. Empty lines and lines starting with {@code #} are skipped, and {@code quit} or
+ * {@code exit} ends the session. Up to the given number of commands run at once; each command's output is printed
+ * with its line number and the time it took, so the outputs of concurrent commands can be told apart. A summary
+ * is printed at the end.
+ * </p>
+ *
+ * @author Shaznin Sultana
+ * @version 1.0
+ */
+public class IdClientSession {
+    private final IdClusterClient client;
+    private final int jobs;
+    private final Options options = IdClient.setupOptions();
+
+    /**
+     * Constructs a session.
+     *
+     * @param client the client to send every command with.
+     * @param jobs   the number of commands running at once, at least 1.
+     */
+    public IdClientSession(IdClusterClient client, int jobs) {
+        this.client = client;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Runs the commands read from a reader until its end or a {@code quit} line.
+     *
+     * @param in          the commands, one per line.
+     * @param interactive true to print a prompt before every line.
+     * @throws IOException if the commands cannot be read.
+     */
+    public void run(Reader in, boolean interactive) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        Semaphore inFlight = new Semaphore(jobs);
+        AtomicInteger commands = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        long sessionStart = System.nanoTime();
+        int lineNumber = 0;
+        try {
+            while (true) {
+                if (interactive) {
+                    System.out.print("> ");
+                    System.out.flush();
+                }
+                String text = reader.readLine();
+                if (text == null) {
+                    break;
+                }
+                lineNumber++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                if (text.equals("quit") || text.equals("exit")) {
+                    break;
+                }
+                int number = lineNumber;
+                String command = text;
+                /**
+                 * waiting for a free slot before reading on, so at most jobs commands are in flight
+                 */
+                inFlight.acquireUninterruptibly();
+                commands.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        if (!execute(number, command)) {
+                            failures.incrementAndGet();
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                if (interactive) {
+                    /**
+                     * the prompt comes back once the command has printed its output
+                     */
+                    inFlight.acquireUninterruptibly(jobs);
+                    inFlight.release(jobs);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double seconds = (System.nanoTime() - sessionStart) / 1e9;
+        System.out.printf("%d commands, %d failed, in %.3f s%n", commands.get(), failures.get(), seconds);
+    }
+
+    /**
+     * Runs one command and prints its output with its line number and the time it took.
+     *
+     * @param number  the line number of the command.
+     * @param command the command.
+     * @return true if the command succeeded.
+     */
+    private boolean execute(int number, String command) {
+        long start = System.nanoTime();
+        String output;
+        boolean succeeded = false;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine line = parser.parse(options, split(command));
+            if (line.hasOption("s") || line.hasOption("n") || line.hasOption("i") || line.hasOption("f")
+                    || line.hasOption("b") || line.hasOption("x")) {
+                throw new ParseException("-s, -n, -i, -f, -b and -x cannot be used inside a session");
+            }
+            output = IdClient.runCommand(line, client);
+            succeeded = true;
+        } catch (ParseException e) {
+            output = "ParseTest: " + e.getMessage() + "\n";
+        } catch (RemoteException e) {
+            output = "Remote Exception:" + e.getMessage() + "\n";
+        } catch (RuntimeException e) {
+            output = "Error: " + e + "\n";
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        /**
+         * one print per command, so the outputs of concurrent commands are not mixed
+         */
+        System.out.print(String.format("[%d] %.3f ms%n", number, millis) + output);
+        return succeeded;
+    }
+
+    /**
+     * Splits a command line into arguments at spaces, keeping the spaces inside double quotes.
+     *
+     * @param command the command line.
+     * @return the arguments.
+     */
+    static String[] split(String command) {
+        List<String> args = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inArg = false;
+        for (char c : command.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                inArg = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inArg) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                current.append(c);
+                inArg = true;
+            }
+        }
+        if (inArg) {
+            args.add(current.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,677 @@
+package p4.client;
+
+import p4.server.ChangeBatch;
+import p4.server.IdServerInterfaceForClient;
+import p4.server.ImportReport;
+import p4.server.ImportRow;
+import p4.server.LoadReport;
+import p4.server.LookupResult;
+import p4.server.ServerOverloadedException;
+
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code IdClusterClient} class is a client library for a cluster of identity servers, meant to be kept and
+ * shared by a program that makes many calls.
+ * <p>
+ * It knows the address of every server and looks up each server's stub once, then reuses it. Reads go to the
+ * less loaded of two servers picked at random (power of two choices), skipping servers that failed recently; the
+ * load of every server is asked with {@code getLoadReport} every {@code p4.client.loadRefresh} milliseconds (1000)
+ * in the background. Writes go to the coordinator, whose address is asked from any server.
+ * </p>
+ * <p>
+ * Lookups and reverse lookups are hedged: if the first server has not answered after the 95th percentile time of
+ * the recent reads (at least {@code p4.client.hedgeMinDelay} milliseconds, 5), the same read is sent to a second
+ * server and the first answer is used. Every read earns {@code p4.client.hedgeBudget} (0.05) of a hedge, so hedges
+ * add at most about 5% more reads, even when every server is slow. {@code -Dp4.client.hedge=false} turns hedging
+ * off. When a call fails the stub is dropped, the server is skipped for
+ * {@code p4.client.retryAfter} milliseconds and the call is tried on the next server. A write is only tried again
+ * when the failure shows it never reached the server (the connection could not be made), because the server may
+ * have applied it otherwise. Calls that must stay on one server, the chunks of an export and the change feed,
+ * wait the time an overloaded server asks for and are tried again on it, at most
+ * {@code p4.client.overloadRetries} times (20). The class is safe to use from many threads.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class IdClusterClient {
+    private static final long RETRY_AFTER = Long.getLong("p4.client.retryAfter", 5000);
+    private static final int OVERLOAD_RETRIES = Integer.getInteger("p4.client.overloadRetries", 20);
+    private static final long LOAD_REFRESH = Long.getLong("p4.client.loadRefresh", 1000);
+    private static final boolean HEDGE = Boolean.parseBoolean(System.getProperty("p4.client.hedge", "true"));
+    private static final long HEDGE_MIN_DELAY = Long.getLong("p4.client.hedgeMinDelay", 5);
+    private static final long HEDGE_INITIAL_DELAY = 50;
+    private static final double HEDGE_BUDGET = Double.parseDouble(System.getProperty("p4.client.hedgeBudget", "0.05"));
+    private static final double HEDGE_BUDGET_CAP = 10;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final String BINDING_NAME = "IdServerForClient";
+
+    private final List<String> hosts;
+    private final int registryPort;
+    private final Map<String, IdServerInterfaceForClient> stubs =
+            new ConcurrentHashMap<String, IdServerInterfaceForClient>();
+    private final Map<String, Long> failedAt = new ConcurrentHashMap<String, Long>();
+    private final Map<String, LoadReport> loads = new ConcurrentHashMap<String, LoadReport>();
+    private final Map<String, Long> loadsReceivedAt = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger nextRead = new AtomicInteger();
+    private volatile String coordinator;
+    private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "hedged-read");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long[] readLatencies = new long[LATENCY_SAMPLES];
+    private int nextLatency;
+    private int latencyCount;
+    private double hedgeTokens = HEDGE_BUDGET_CAP;
+
+    /**
+     * A call made on one server's stub.
+     *
+     * @param <R> the result of the call
+     */
+    public interface ServerCall<R> {
+        R call(IdServerInterfaceForClient stub) throws RemoteException;
+    }
+
+    /**
+     * Constructs a client for a cluster.
+     *
+     * @param hosts        the addresses of the servers.
+     * @param registryPort the port of the servers' client side registries.
+     */
+    public IdClusterClient(List<String> hosts, int registryPort) {
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("at least one server address is needed");
+        }
+        this.hosts = new ArrayList<String>(hosts);
+        this.registryPort = registryPort;
+        if (this.hosts.size() > 1) {
+            /**
+             * with one server there is nothing to choose, so no reports are asked
+             */
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "load-report-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshLoads, 0, LOAD_REFRESH, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates a user on the coordinator.
+     *
+     * @param loginName the login name of the new user.
+     * @param realName  the real name of the new user.
+     * @param password  the password of the new user.
+     * @return the uuid of the new user, or an error message.
+     * @throws RemoteException if the write fails.
+     */
+    public String createUser(String loginName, String realName, String password) throws RemoteException {
+        return write(stub -> stub.createUser(loginName, realName, password));
+    }
+
+    /**
+     * Changes a user's login name on the coordinator.
+     *
+     * @param loginName    the current login name.
+     * @param newLoginName the new login name.
+     * @param password     the user's password.
+     * @return the server's response.
+     * @throws RemoteException if the write fails.
+     */
+    public String modify(String loginName, String newLoginName, String password) throws RemoteException {
+        return write(stub -> stub.modify(loginName, newLoginName, password));
+    }
+
+    /**
+     * Deletes a user on the coordinator.
+     *
+     * @param loginName the login name of the user.
+     * @param password  the user's password.
+     * @return the server's response.
+     * @throws RemoteException if the write fails.
+     */
+    public String delete(String loginName, String password) throws RemoteException {
+        return write(stub -> stub.delete(loginName, password));
+    }
+
+    /**
+     * Creates many users with one call on the coordinator.
+     *
+     * @param rows the users to create.
+     * @return the number of users created and the rows that failed.
+     * @throws RemoteException if the import fails.
+     */
+    public ImportReport importUsers(List<ImportRow> rows) throws RemoteException {
+        ArrayList<ImportRow> batch = new ArrayList<ImportRow>(rows);
+        return write(stub -> stub.importUsers(batch));
+    }
+
+    /**
+     * Looks a user up by login name on any healthy server.
+     *
+     * @param loginName the login name.
+     * @return the matching users.
+     * @throws RemoteException if no server can answer.
+     */
+    public String lookup(String loginName) throws RemoteException {
+        return hedgedRead(stub -> stub.lookup(loginName));
+    }
+
+    /**
+     * Looks a user up by login name on any healthy server, accepting an answer at most the given staleness old.
+     *
+     * @param loginName          the login name.
+     * @param maxStalenessMillis the maximum staleness in milliseconds.
+     * @return the matching users.
+     * @throws RemoteException if no server can answer.
+     */
+    public String lookup(String loginName, long maxStalenessMillis) throws RemoteException {
+        return hedgedRead(stub -> stub.lookup(loginName, maxStalenessMillis));
+    }
+
+    /**
+     * Looks a user up by uuid on any healthy server.
+     *
+     * @param uuid the uuid.
+     * @return the matching users.
+     * @throws RemoteException if no server can answer.
+     */
+    public String reverseLookup(String uuid) throws RemoteException {
+        return hedgedRead(stub -> stub.reverseLookup(uuid));
+    }
+
+    /**
+     * Looks a user up by uuid on any healthy server, accepting an answer at most the given staleness old.
+     *
+     * @param uuid               the uuid.
+     * @param maxStalenessMillis the maximum staleness in milliseconds.
+     * @return the matching users.
+     * @throws RemoteException if no server can answer.
+     */
+    public String reverseLookup(String uuid, long maxStalenessMillis) throws RemoteException {
+        return hedgedRead(stub -> stub.reverseLookup(uuid, maxStalenessMillis));
+    }
+
+    /**
+     * Looks many users up by login name with one call on any healthy server.
+     *
+     * @param loginNames the login names.
+     * @return one result per login name, in the same order.
+     * @throws RemoteException if no server can answer.
+     */
+    public List<LookupResult> lookupMany(List<String> loginNames) throws RemoteException {
+        ArrayList<String> keys = new ArrayList<String>(loginNames);
+        return read(stub -> stub.lookupMany(keys));
+    }
+
+    /**
+     * Looks many users up by uuid with one call on any healthy server.
+     *
+     * @param uuids the uuids.
+     * @return one result per uuid, in the same order.
+     * @throws RemoteException if no server can answer.
+     */
+    public List<LookupResult> reverseLookupMany(List<String> uuids) throws RemoteException {
+        ArrayList<String> keys = new ArrayList<String>(uuids);
+        return read(stub -> stub.reverseLookupMany(keys));
+    }
+
+    /**
+     * Lists the login names of all users.
+     *
+     * @return the login names.
+     * @throws RemoteException if no server can answer.
+     */
+    public String allUsers() throws RemoteException {
+        return read(IdServerInterfaceForClient::allUsers);
+    }
+
+    /**
+     * Lists the uuids of all users.
+     *
+     * @return the uuids.
+     * @throws RemoteException if no server can answer.
+     */
+    public String allUUIds() throws RemoteException {
+        return read(IdServerInterfaceForClient::allUUIds);
+    }
+
+    /**
+     * Lists every user with all details.
+     *
+     * @return the users.
+     * @throws RemoteException if no server can answer.
+     */
+    public String all() throws RemoteException {
+        return read(IdServerInterfaceForClient::all);
+    }
+
+    /**
+     * Gets the next batch of the change feed. Consumer offsets belong to one server, so the feed is always read
+     * from the first server in the list, without failover.
+     *
+     * @param consumerId the consumer's name.
+     * @param maxBatch   the largest number of changes to return.
+     * @param waitMillis how long to wait for a change in milliseconds.
+     * @return the batch of changes.
+     * @throws RemoteException if the first server cannot be reached.
+     */
+    public ChangeBatch getChanges(String consumerId, int maxBatch, long waitMillis) throws RemoteException {
+        return callOnWhenAdmitted(hosts.get(0), stub -> stub.getChanges(consumerId, maxBatch, waitMillis));
+    }
+
+    /**
+     * Commits a consumer's offset in the change feed of the first server in the list.
+     *
+     * @param consumerId the consumer's name.
+     * @param offset     the offset returned with the last processed batch.
+     * @throws RemoteException if the first server cannot be reached.
+     */
+    public void commitChanges(String consumerId, long offset) throws RemoteException {
+        callOnWhenAdmitted(hosts.get(0), stub -> {
+            stub.commitChanges(consumerId, offset);
+            return null;
+        });
+    }
+
+    /**
+     * Makes a read on the next healthy server, and on the following servers if it fails.
+     *
+     * @param call the read.
+     * @param <R>  the result of the read.
+     * @return the result.
+     * @throws RemoteException the last failure, if no server could answer.
+     */
+    public <R> R read(ServerCall<R> call) throws RemoteException {
+        RemoteException lastFailure = null;
+        for (String host : hostsInReadOrder()) {
+            try {
+                return callOn(host, call);
+            } catch (RemoteException e) {
+                lastFailure = e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * Makes a read like {@link #read(ServerCall)}, but if the first server has not answered after the hedge delay
+     * and the hedge budget allows it, sends the read to the next server as well and returns the first answer. If a
+     * server fails, the read goes on to the next server. Only reads that are safe to make twice should be hedged.
+     *
+     * @param call the read.
+     * @param <R>  the result of the read.
+     * @return the first result.
+     * @throws RemoteException the last failure, if no server could answer.
+     */
+    public <R> R hedgedRead(ServerCall<R> call) throws RemoteException {
+        List<String> order = hostsInReadOrder();
+        if (!HEDGE || order.size() < 2) {
+            return read(call);
+        }
+        earnHedge();
+        CompletionService<R> completion = new ExecutorCompletionService<R>(hedgeExecutor);
+        List<Future<R>> started = new ArrayList<Future<R>>();
+        RemoteException lastFailure = null;
+        boolean hedged = false;
+        int next = 0;
+        int outstanding = 0;
+        try {
+            while (true) {
+                if (outstanding == 0) {
+                    if (next == order.size()) {
+                        throw lastFailure;
+                    }
+                    started.add(completion.submit(timed(order.get(next++), call)));
+                    outstanding++;
+                }
+                Future<R> done;
+                if (hedged || next == order.size()) {
+                    done = completion.take();
+                } else {
+                    done = completion.poll(hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        /**
+                         * the first server is slow: one hedge per read, if the budget allows it
+                         */
+                        hedged = true;
+                        if (spendHedge()) {
+                            started.add(completion.submit(timed(order.get(next++), call)));
+                            outstanding++;
+                        }
+                        continue;
+                    }
+                }
+                outstanding--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof RemoteException)) {
+                        throw new RemoteException("read failed", e.getCause());
+                    }
+                    lastFailure = (RemoteException) e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("interrupted while waiting for a read", e);
+        } finally {
+            /**
+             * the slower read is not waited for; its answer is dropped
+             */
+            for (Future<R> future : started) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Wraps a read on one server so its time is recorded for the hedge delay when it succeeds.
+     *
+     * @param host the address of the server.
+     * @param call the read.
+     * @param <R>  the result of the read.
+     * @return the timed read.
+     */
+    private <R> Callable<R> timed(String host, ServerCall<R> call) {
+        return () -> {
+            long start = System.nanoTime();
+            R result = callOn(host, call);
+            recordLatency(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    /**
+     * Records the time of a successful read.
+     *
+     * @param nanos the time in nanoseconds.
+     */
+    private synchronized void recordLatency(long nanos) {
+        readLatencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % readLatencies.length;
+        latencyCount = Math.min(latencyCount + 1, readLatencies.length);
+    }
+
+    /**
+     * Gets how long to wait for the first server before hedging: the 95th percentile time of the recent reads,
+     * or a fixed delay until enough reads were made.
+     *
+     * @return the delay in milliseconds.
+     */
+    private long hedgeDelayMillis() {
+        long[] sorted;
+        synchronized (this) {
+            if (latencyCount < 20) {
+                return HEDGE_INITIAL_DELAY;
+            }
+            sorted = Arrays.copyOf(readLatencies, latencyCount);
+        }
+        Arrays.sort(sorted);
+        long p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1] / 1000000;
+        return Math.max(p95, HEDGE_MIN_DELAY);
+    }
+
+    /**
+     * Adds the share of a hedge every read earns to the budget.
+     */
+    private synchronized void earnHedge() {
+        hedgeTokens = Math.min(HEDGE_BUDGET_CAP, hedgeTokens + HEDGE_BUDGET);
+    }
+
+    /**
+     * Takes one hedge from the budget.
+     *
+     * @return true if the budget had a hedge left.
+     */
+    private synchronized boolean spendHedge() {
+        if (hedgeTokens < 1) {
+            return false;
+        }
+        hedgeTokens -= 1;
+        return true;
+    }
+
+    /**
+     * Makes a write on the coordinator. If the coordinator cannot be reached, the coordinator is looked up again
+     * and the write is tried once more on it.
+     *
+     * @param call the write.
+     * @param <R>  the result of the write.
+     * @return the result.
+     * @throws RemoteException if the write fails, or reached a server and may have been applied.
+     */
+    public <R> R write(ServerCall<R> call) throws RemoteException {
+        String target = coordinator;
+        if (target == null) {
+            target = findCoordinator();
+        }
+        try {
+            return callOn(target, call);
+        } catch (ConnectException | ConnectIOException | NoSuchObjectException | UnknownHostException e) {
+            /**
+             * the write did not reach the server, so it is safe to try it on the new coordinator
+             */
+            coordinator = null;
+            return callOn(findCoordinator(), call);
+        } catch (ServerOverloadedException e) {
+            throw e;
+        } catch (RemoteException e) {
+            coordinator = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Asks the servers for the current coordinator's address. If no server knows it, writes go to any server,
+     * which passes them on.
+     *
+     * @return the address to send writes to.
+     * @throws RemoteException if no server can be reached.
+     */
+    private String findCoordinator() throws RemoteException {
+        String found = read(IdServerInterfaceForClient::getCoordinatorAddr);
+        if (found == null) {
+            return hostsInReadOrder().get(0);
+        }
+        coordinator = found;
+        return found;
+    }
+
+    /**
+     * Makes a call on one server with its cached stub. If the call fails the stub is dropped and the server is
+     * skipped by reads for a while, unless the server only turned the call away because it is overloaded.
+     *
+     * @param host the address of the server.
+     * @param call the call.
+     * @param <R>  the result of the call.
+     * @return the result.
+     * @throws RemoteException if the call fails.
+     */
+    public <R> R callOn(String host, ServerCall<R> call) throws RemoteException {
+        try {
+            R result = call.call(getStub(host));
+            failedAt.remove(host);
+            return result;
+        } catch (ServerOverloadedException e) {
+            /**
+             * the server is healthy but busy, so its stub is kept
+             */
+            throw e;
+        } catch (RemoteException e) {
+            stubs.remove(host);
+            failedAt.put(host, System.currentTimeMillis());
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a call on one server like {@link #callOn(String, ServerCall)}, but when the server turns the call away
+     * because it is overloaded, waits the time the server asked for and tries again on the same server, at most
+     * {@code p4.client.overloadRetries} times.
+     *
+     * @param host the address of the server.
+     * @param call the call.
+     * @param <R>  the result of the call.
+     * @return the result.
+     * @throws RemoteException if the call fails, or the server is still overloaded after the last try.
+     */
+    public <R> R callOnWhenAdmitted(String host, ServerCall<R> call) throws RemoteException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return callOn(host, call);
+            } catch (ServerOverloadedException e) {
+                if (attempt >= OVERLOAD_RETRIES) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(Math.max(1, e.getRetryAfterMillis()));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the stub of a server, looking it up in the server's registry if it is not cached.
+     *
+     * @param host the address of the server.
+     * @return the stub.
+     * @throws RemoteException if the registry cannot be reached or nothing is bound in it.
+     */
+    private IdServerInterfaceForClient getStub(String host) throws RemoteException {
+        IdServerInterfaceForClient stub = stubs.get(host);
+        if (stub == null) {
+            try {
+                Registry registry = LocateRegistry.getRegistry(host, registryPort);
+                stub = (IdServerInterfaceForClient) registry.lookup(BINDING_NAME);
+            } catch (NotBoundException e) {
+                throw new ConnectException(BINDING_NAME + " is not bound on " + host, e);
+            }
+            stubs.put(host, stub);
+        }
+        return stub;
+    }
+
+    /**
+     * Gets the servers in the order reads should try them: starting from the less loaded of two healthy servers
+     * picked at random, then the other servers in turn, with the servers that failed recently at the end.
+     *
+     * @return the server addresses.
+     */
+    private List<String> hostsInReadOrder() {
+        List<String> healthy = new ArrayList<String>();
+        List<String> failed = new ArrayList<String>();
+        int start = Math.floorMod(nextRead.getAndIncrement(), hosts.size());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < hosts.size(); i++) {
+            String host = hosts.get((start + i) % hosts.size());
+            Long failedTime = failedAt.get(host);
+            if (failedTime != null && now - failedTime < RETRY_AFTER) {
+                failed.add(host);
+            } else {
+                healthy.add(host);
+            }
+        }
+        if (healthy.size() > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(healthy.size());
+            int second = (first + 1 + random.nextInt(healthy.size() - 1)) % healthy.size();
+            int chosen = loadOf(healthy.get(second)) < loadOf(healthy.get(first)) ? second : first;
+            healthy.add(0, healthy.remove(chosen));
+        }
+        healthy.addAll(failed);
+        return healthy;
+    }
+
+    /**
+     * Asks every server for its load report. A server that does not answer is marked failed like after any other
+     * failed call.
+     */
+    private void refreshLoads() {
+        for (String host : hosts) {
+            try {
+                LoadReport report = callOn(host, IdServerInterfaceForClient::getLoadReport);
+                loads.put(host, report);
+                loadsReceivedAt.put(host, System.currentTimeMillis());
+            } catch (RemoteException e) {
+                loads.remove(host);
+            } catch (RuntimeException e) {
+                System.out.println("could not refresh the load of " + host + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Estimates how long a read would wait on a server: the requests it is working on, plus this one, times its
+     * recent 99th percentile time. A server without a recent report counts as idle, so it gets reads until its
+     * report arrives.
+     *
+     * @param host the address of the server.
+     * @return the estimated wait, 0 if unknown.
+     */
+    private double loadOf(String host) {
+        LoadReport report = loads.get(host);
+        Long receivedAt = loadsReceivedAt.get(host);
+        if (report == null || receivedAt == null || System.currentTimeMillis() - receivedAt > 3 * LOAD_REFRESH) {
+            return 0;
+        }
+        return (report.getInFlight() + 1) * Math.max(report.getP99Millis(), 1.0);
+    }
+
+    /**
+     * Gets the last load report of every server that answered.
+     *
+     * @return the load reports by server address.
+     */
+    public Map<String, LoadReport> getLoadReports() {
+        return loads;
+    }
+
+    /**
+     * Chooses the server a read would go to first, for a series of reads that must all go to the same server.
+     *
+     * @return the address of the server.
+     */
+    public String chooseReadHost() {
+        return hostsInReadOrder().get(0);
+    }
+
+    /**
+     * Gets the addresses of the servers.
+     *
+     * @return the server addresses.
+     */
+    public List<String> getHosts() {
+        return hosts;
+    }
+}
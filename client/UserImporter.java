@@ -0,0 +1,172 @@
+package p4.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import p4.server.ImportReport;
+import p4.server.ImportRow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code UserImporter} class reads users from a file and creates them in batches with
+ * {@link IdClusterClient#importUsers(List)}.
+ * <p>
+ * A file ending in {@code .csv} has one user per line: login name, real name and password, separated by commas,
+ * with double quotes around a value that has a comma; a first line starting with {@code loginName} is a header and
+ * is skipped. Any other file is NDJSON, one object per line with the fields {@code loginName}, {@code realName}
+ * and {@code password}. The file is read as a stream and sent in batches of {@code p4.import.batchSize} (1000)
+ * rows, so its size does not matter. Progress is printed after every batch, and every row that could not be read
+ * or created is printed with its line.
+ * </p>
+ *
+ * @author Shaznin Sultana
+ * @version 1.0
+ */
+public class UserImporter {
+    private static final int BATCH_SIZE = Integer.getInteger("p4.import.batchSize", 1000);
+
+    private final IdClusterClient client;
+    private final Gson gson = new Gson();
+    private long created;
+    private long failed;
+
+    /**
+     * Constructs an importer.
+     *
+     * @param client the client to create the users with.
+     */
+    public UserImporter(IdClusterClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Imports the users of a file.
+     *
+     * @param file the CSV or NDJSON file.
+     * @throws IOException     if the file cannot be read.
+     * @throws RemoteException if a batch cannot be sent; the batches before it are already created.
+     */
+    public void run(Path file) throws IOException, RemoteException {
+        boolean csv = file.getFileName().toString().toLowerCase().endsWith(".csv");
+        long startTime = System.currentTimeMillis();
+        List<ImportRow> batch = new ArrayList<ImportRow>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            long line = 0;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.trim().isEmpty() || (csv && line == 1 && text.startsWith("loginName"))) {
+                    continue;
+                }
+                ImportRow row = csv ? fromCsv(line, text) : fromJson(line, text);
+                if (row == null) {
+                    failed++;
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() == BATCH_SIZE) {
+                    send(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        System.out.println("import done: " + created + " users created, " + failed + " rows failed, in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Sends one batch and prints its errors and the progress.
+     *
+     * @param batch the rows.
+     * @throws RemoteException if the batch cannot be sent.
+     */
+    private void send(List<ImportRow> batch) throws RemoteException {
+        ImportReport report = client.importUsers(batch);
+        for (String error : report.getErrors()) {
+            System.out.println(error);
+        }
+        created += report.getCreated();
+        failed += report.getErrors().size();
+        System.out.println("imported " + created + " users, " + failed + " rows failed so far");
+    }
+
+    /**
+     * Reads a CSV row.
+     *
+     * @param line the line number.
+     * @param text the line.
+     * @return the row, or null if the line is not valid.
+     */
+    private ImportRow fromCsv(long line, String text) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        if (fields.size() != 3) {
+            System.out.println("line " + line + ": expected loginName,realName,password but found "
+                    + fields.size() + " fields.");
+            return null;
+        }
+        return new ImportRow(line, fields.get(0), fields.get(1), fields.get(2));
+    }
+
+    /**
+     * Reads an NDJSON row.
+     *
+     * @param line the line number.
+     * @param text the line.
+     * @return the row, or null if the line is not valid.
+     */
+    private ImportRow fromJson(long line, String text) {
+        try {
+            JsonObject object = gson.fromJson(text, JsonObject.class);
+            return new ImportRow(line, stringOf(object, "loginName"), stringOf(object, "realName"),
+                    stringOf(object, "password"));
+        } catch (JsonParseException | IllegalStateException | ClassCastException e) {
+            System.out.println("line " + line + ": not a valid JSON object: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets a string field of a JSON object.
+     *
+     * @param object the object.
+     * @param name   the name of the field.
+     * @return the value, or null if the field is missing.
+     */
+    private static String stringOf(JsonObject object, String name) {
+        return object.has(name) && !object.get(name).isJsonNull() ? object.get(name).getAsString() : null;
+    }
+}
@@ -0,0 +1,256 @@
+package p4.server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AdmissionController class decides, before a client request runs, if the server takes it, so that one client
+ * sending too many expensive requests cannot take the server from everyone else.
+ * <p>
+ * Three limits are checked, and a request over any of them is turned away at once with a
+ * {@link ServerOverloadedException} instead of waiting. Every limit is checked before anything is taken, so a
+ * request that is turned away costs its client no tokens:
+ * </p>
+ * <ul>
+ * <li>every client host has a token bucket of {@code p4.admission.hostRate} requests per second (100), with
+ * bursts of up to {@code p4.admission.hostBurst} (200); a listing costs {@code p4.admission.listingCost} (20)
+ * tokens, a batch lookup one token plus {@code p4.admission.batchKeyCost} (0.25) per key, any other request
+ * one;</li>
+ * <li>every {@link RequestClass} has a token bucket for the whole server, from which a batch lookup takes as
+ * many tokens as from its host bucket, {@code p4.admission.pointReadRate}
+ * (5000), {@code p4.admission.listingRate} (20), {@code p4.admission.writeRate} (500) and
+ * {@code p4.admission.changeFeedRate} (200) requests per second;</li>
+ * <li>at most {@code p4.admission.maxListings} (4) listings run at once.</li>
+ * </ul>
+ * <p>
+ * Requests of the other servers, which pass on reads of their own clients, are only held to the class limits.
+ * RMI gives the address of the caller, so the server host names are resolved to their addresses when the
+ * controller is built.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class AdmissionController {
+    private static final double HOST_RATE = Double.parseDouble(System.getProperty("p4.admission.hostRate", "100"));
+    private static final double HOST_BURST = Double.parseDouble(System.getProperty("p4.admission.hostBurst", "200"));
+    private static final double LISTING_COST = Double.parseDouble(System.getProperty("p4.admission.listingCost", "20"));
+    private static final double BATCH_KEY_COST =
+            Double.parseDouble(System.getProperty("p4.admission.batchKeyCost", "0.25"));
+    private static final int MAX_LISTINGS = Integer.getInteger("p4.admission.maxListings", 4);
+    private static final int MAX_HOSTS = 10000;
+
+    private final Set<String> serverHosts = new HashSet<String>();
+    private final Map<String, TokenBucket> hostBuckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final Map<RequestClass, TokenBucket> classBuckets = new EnumMap<RequestClass, TokenBucket>(RequestClass.class);
+    private final Semaphore listings = new Semaphore(MAX_LISTINGS);
+    private final Map<RequestClass, AtomicLong> rejected = new EnumMap<RequestClass, AtomicLong>(RequestClass.class);
+
+    /**
+     * Constructs the controller.
+     *
+     * @param serverAddrs the addresses of all servers, whose requests are not limited per host.
+     */
+    public AdmissionController(List<String> serverAddrs) {
+        for (String addr : serverAddrs) {
+            serverHosts.add(addr);
+            try {
+                for (InetAddress address : InetAddress.getAllByName(addr)) {
+                    serverHosts.add(address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                System.out.println("cannot resolve server " + addr + ", its requests are limited like a client's");
+            }
+        }
+        classBuckets.put(RequestClass.POINT_READ, bucket("p4.admission.pointReadRate", 5000));
+        classBuckets.put(RequestClass.LISTING, bucket("p4.admission.listingRate", 20));
+        classBuckets.put(RequestClass.WRITE, bucket("p4.admission.writeRate", 500));
+        classBuckets.put(RequestClass.CHANGE_FEED, bucket("p4.admission.changeFeedRate", 200));
+        for (RequestClass requestClass : RequestClass.values()) {
+            rejected.put(requestClass, new AtomicLong());
+        }
+    }
+
+    /**
+     * Admits a request, or turns it away. An admitted request must be followed by {@link #release(RequestClass)}
+     * once it is done.
+     *
+     * @param clientHost   the address of the client, null for a call from inside the server.
+     * @param requestClass the kind of the request.
+     * @throws ServerOverloadedException if the request is over a limit.
+     */
+    public void admit(String clientHost, RequestClass requestClass) throws ServerOverloadedException {
+        admit(clientHost, requestClass, requestClass == RequestClass.LISTING ? LISTING_COST : 1, 1);
+    }
+
+    /**
+     * Admits a batch lookup of many keys, which is a point read that costs more the more keys it has. An admitted
+     * request must be followed by {@link #release(RequestClass)} once it is done.
+     *
+     * @param clientHost the address of the client, null for a call from inside the server.
+     * @param keys       the number of keys in the batch.
+     * @throws ServerOverloadedException if the request is over a limit.
+     */
+    public void admitBatch(String clientHost, int keys) throws ServerOverloadedException {
+        double cost = 1 + keys * BATCH_KEY_COST;
+        admit(clientHost, RequestClass.POINT_READ, cost, cost);
+    }
+
+    /**
+     * Admits a request that costs the given numbers of tokens, or turns it away.
+     *
+     * @param clientHost   the address of the client, null for a call from inside the server.
+     * @param requestClass the kind of the request.
+     * @param cost         the tokens taken from the client host's bucket.
+     * @param classCost    the tokens taken from the bucket of the request's kind.
+     * @throws ServerOverloadedException if the request is over a limit.
+     */
+    private void admit(String clientHost, RequestClass requestClass, double cost, double classCost)
+            throws ServerOverloadedException {
+        TokenBucket hostBucket = null;
+        if (clientHost != null && !serverHosts.contains(clientHost)) {
+            hostBucket = hostBuckets.get(clientHost);
+            if (hostBucket == null) {
+                if (hostBuckets.size() >= MAX_HOSTS) {
+                    forgetIdleHosts();
+                }
+                hostBucket = hostBuckets.computeIfAbsent(clientHost, host -> new TokenBucket(HOST_RATE, HOST_BURST));
+            }
+        }
+        TokenBucket classBucket = classBuckets.get(requestClass);
+        if (requestClass == RequestClass.LISTING && !listings.tryAcquire()) {
+            throw reject(requestClass, "too many listings running on this server", 100);
+        }
+        /**
+         * the host bucket is always locked before the class bucket, so two requests cannot lock them the other way
+         */
+        Object hostLock = hostBucket == null ? new Object() : hostBucket;
+        Object classLock = classBucket == null ? new Object() : classBucket;
+        synchronized (hostLock) {
+            synchronized (classLock) {
+                long wait = hostBucket == null ? 0 : hostBucket.waitFor(cost);
+                String message = "too many requests from " + clientHost;
+                if (wait == 0 && classBucket != null) {
+                    wait = classBucket.waitFor(classCost);
+                    message = "too many " + requestClass + " requests on this server";
+                }
+                if (wait > 0) {
+                    if (requestClass == RequestClass.LISTING) {
+                        listings.release();
+                    }
+                    throw reject(requestClass, message, wait);
+                }
+                if (hostBucket != null) {
+                    hostBucket.take(cost);
+                }
+                if (classBucket != null) {
+                    classBucket.take(classCost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted request.
+     *
+     * @param requestClass the kind of the request.
+     */
+    public void release(RequestClass requestClass) {
+        if (requestClass == RequestClass.LISTING) {
+            listings.release();
+        }
+    }
+
+    /**
+     * Gets the number of requests turned away, by kind.
+     *
+     * @return the counts as a string.
+     */
+    public String getRejectedReport() {
+        return rejected.toString();
+    }
+
+    private ServerOverloadedException reject(RequestClass requestClass, String message, long retryAfterMillis) {
+        rejected.get(requestClass).incrementAndGet();
+        return new ServerOverloadedException("server overloaded: " + message + ", retry after "
+                + retryAfterMillis + " ms.", retryAfterMillis);
+    }
+
+    /**
+     * Drops the buckets of hosts that have been idle long enough for their bucket to be full again, so the map
+     * does not grow without bound.
+     */
+    private void forgetIdleHosts() {
+        Iterator<TokenBucket> buckets = hostBuckets.values().iterator();
+        while (buckets.hasNext()) {
+            if (buckets.next().isFull()) {
+                buckets.remove();
+            }
+        }
+    }
+
+    private static TokenBucket bucket(String property, double defaultRate) {
+        double rate = Double.parseDouble(System.getProperty(property, Double.toString(defaultRate)));
+        return new TokenBucket(rate, rate);
+    }
+
+    /**
+     * A token bucket that fills at a fixed rate up to its capacity.
+     */
+    private static class TokenBucket {
+        private final double ratePerMilli;
+        private final double capacity;
+        private double tokens;
+        private long updatedAt = System.currentTimeMillis();
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerMilli = ratePerSecond / 1000;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        /**
+         * Checks if the bucket has tokens, without taking them.
+         *
+         * @param cost the number of tokens.
+         * @return 0 if the tokens are there, otherwise how many milliseconds until they are.
+         */
+        synchronized long waitFor(double cost) {
+            refill();
+            double needed = Math.min(cost, capacity);
+            if (tokens >= needed) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((needed - tokens) / ratePerMilli));
+        }
+
+        /**
+         * Takes tokens that {@link #waitFor(double)} has found, under the same lock.
+         *
+         * @param cost the number of tokens.
+         */
+        synchronized void take(double cost) {
+            tokens -= Math.min(cost, capacity);
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - updatedAt) * ratePerMilli);
+            updatedAt = now;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package p4.server;
+
+import java.rmi.RemoteException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Bulkheads class runs the work of every {@link RequestClass} on its own bounded executor, so one kind of
+ * request cannot hold up the others.
+ * <p>
+ * RMI runs every call on a thread of its own, so without this a burst of listings or writes that wait on redis or
+ * on the write lock would compete with everything else, including the liveness, election and lease calls between
+ * servers; a late answer to those makes the other servers think the coordinator crashed and start an election.
+ * The RMI thread now hands the work to the executor of its kind and waits for it:
+ * </p>
+ * <ul>
+ * <li>point reads: {@code p4.pool.pointReads} threads (16) and a queue of {@code p4.pool.pointReadQueue} (256);</li>
+ * <li>listings: {@code p4.pool.listings} threads (2) and a queue of {@code p4.pool.listingQueue} (16);</li>
+ * <li>writes: {@code p4.pool.writes} threads (4) and a queue of {@code p4.pool.writeQueue} (128);</li>
+ * <li>change feed calls: {@code p4.pool.changeFeeds} threads (4) and a queue of {@code p4.pool.changeFeedQueue}
+ * (16), apart from the listings because a poll waits for changes;</li>
+ * <li>replicated batches from the other servers, by RMI or by stream: {@code p4.pool.replication} threads (2) and a
+ * queue of {@code p4.pool.replicationQueue} (64); a batch turned away is sent again by its server;</li>
+ * <li>control calls: {@code p4.pool.control} threads (8) and a queue of {@code p4.pool.controlQueue} (64),
+ * reserved for them.</li>
+ * </ul>
+ * <p>
+ * A client request whose queue is full is turned away with a {@link ServerOverloadedException}; a control call
+ * is never turned away and runs on the calling thread instead. Work that is already running on the executor of
+ * its kind runs in place, so a call that makes another call of the same kind cannot wait on itself. The queue
+ * metrics of every executor are returned by {@link #getReport()}, which clients read through
+ * {@link IdServerInterfaceForClient#getServerReport()}.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class Bulkheads {
+    /**
+     * the kind of work the current thread runs, null for threads that are not in a bulkhead
+     */
+    private static final ThreadLocal<RequestClass> CURRENT = new ThreadLocal<RequestClass>();
+
+    private final Map<RequestClass, Lane> lanes = new EnumMap<RequestClass, Lane>(RequestClass.class);
+
+    /**
+     * Work run in a bulkhead.
+     *
+     * @param <R> the result of the work
+     */
+    public interface Task<R> {
+        R run() throws RemoteException;
+    }
+
+    /**
+     * Constructs the executors.
+     */
+    public Bulkheads() {
+        lanes.put(RequestClass.POINT_READ, new Lane(RequestClass.POINT_READ,
+                Integer.getInteger("p4.pool.pointReads", 16), Integer.getInteger("p4.pool.pointReadQueue", 256)));
+        lanes.put(RequestClass.LISTING, new Lane(RequestClass.LISTING,
+                Integer.getInteger("p4.pool.listings", 2), Integer.getInteger("p4.pool.listingQueue", 16)));
+        lanes.put(RequestClass.WRITE, new Lane(RequestClass.WRITE,
+                Integer.getInteger("p4.pool.writes", 4), Integer.getInteger("p4.pool.writeQueue", 128)));
+        lanes.put(RequestClass.CHANGE_FEED, new Lane(RequestClass.CHANGE_FEED,
+                Integer.getInteger("p4.pool.changeFeeds", 4), Integer.getInteger("p4.pool.changeFeedQueue", 16)));
+        lanes.put(RequestClass.REPLICATION, new Lane(RequestClass.REPLICATION,
+                Integer.getInteger("p4.pool.replication", 2), Integer.getInteger("p4.pool.replicationQueue", 64)));
+        lanes.put(RequestClass.CONTROL, new Lane(RequestClass.CONTROL,
+                Integer.getInteger("p4.pool.control", 8), Integer.getInteger("p4.pool.controlQueue", 64)));
+    }
+
+    /**
+     * Runs work on the executor of its kind and waits for it.
+     *
+     * @param requestClass the kind of the work.
+     * @param task         the work.
+     * @param <R>          the result of the work.
+     * @return the result.
+     * @throws ServerOverloadedException if the queue of a client request is full.
+     * @throws RemoteException           if the work fails.
+     */
+    public <R> R run(RequestClass requestClass, Task<R> task) throws RemoteException {
+        if (CURRENT.get() == requestClass) {
+            return task.run();
+        }
+        Lane lane = lanes.get(requestClass);
+        long queuedAt = System.nanoTime();
+        Future<R> future;
+        try {
+            future = lane.executor.submit(() -> {
+                lane.queueWaitNanos.addAndGet(System.nanoTime() - queuedAt);
+                lane.started.incrementAndGet();
+                return task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            lane.rejected.incrementAndGet();
+            throw new ServerOverloadedException("server overloaded: the " + requestClass
+                    + " queue is full, retry after 100 ms.", 100);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RemoteException("request failed", cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("interrupted while waiting for the request", e);
+        }
+    }
+
+    /**
+     * Gets the queue metrics of every executor: threads busy, requests waiting, requests done, requests turned
+     * away and the average time a request waited in the queue.
+     *
+     * @return the metrics as a string.
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : lanes.values()) {
+            sb.append(lane).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The executor and the metrics of one kind of work.
+     */
+    private static class Lane {
+        private final RequestClass requestClass;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong queueWaitNanos = new AtomicLong();
+
+        Lane(RequestClass requestClass, int threads, int queueSize) {
+            this.requestClass = requestClass;
+            AtomicInteger count = new AtomicInteger();
+            RejectedExecutionHandler whenFull = requestClass == RequestClass.CONTROL
+                    ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), task -> {
+                Thread thread = new Thread(() -> {
+                    CURRENT.set(requestClass);
+                    task.run();
+                }, requestClass.name().toLowerCase() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, whenFull);
+        }
+
+        @Override
+        public String toString() {
+            long startedCount = started.get();
+            return requestClass + ": " + executor.getActiveCount() + "/" + executor.getMaximumPoolSize()
+                    + " busy, " + executor.getQueue().size() + " queued, " + executor.getCompletedTaskCount()
+                    + " done, " + rejected.get() + " turned away, average queue wait "
+                    + (startedCount == 0 ? 0 : queueWaitNanos.get() / startedCount / 1000000.0) + " ms";
+        }
+    }
+}
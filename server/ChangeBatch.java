@@ -0,0 +1,62 @@
+package p4.server;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The ChangeBatch class is one batch of the change feed delivered to a consumer.
+ * <p>
+ * The consumer processes the events and then commits {@link #getNextOffset()}, so the next batch starts after
+ * them, also after the consumer restarts. If the operation log no longer holds the changes after the consumer's
+ * offset, the batch is marked truncated and the consumer has to reload the full directory once.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ChangeBatch implements Serializable {
+    private static final long serialVersionUID = 3320874101553094421L;
+    ArrayList<ChangeEvent> events;
+    long nextOffset;
+    boolean truncated;
+
+    /**
+     * Constructs a batch.
+     *
+     * @param events     the events, in Lamport clock order.
+     * @param nextOffset the offset to commit once the events are processed.
+     * @param truncated  true if changes after the consumer's offset are no longer in the log.
+     */
+    public ChangeBatch(ArrayList<ChangeEvent> events, long nextOffset, boolean truncated) {
+        this.events = events;
+        this.nextOffset = nextOffset;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Gets the events of the batch.
+     *
+     * @return the events, in Lamport clock order.
+     */
+    public ArrayList<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the offset to commit once the events are processed.
+     *
+     * @return the next offset.
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Checks if changes after the consumer's offset are no longer in the operation log.
+     *
+     * @return true if the consumer has to reload the full directory.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
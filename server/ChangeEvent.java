@@ -0,0 +1,116 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The ChangeEvent class is one create, modify or delete of the directory, as delivered to change feed consumers.
+ * <p>
+ * It is built from a logged {@link UserDbOperation} without the password hash, so consumers such as caches and
+ * audit tools only see the public fields of the user.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ChangeEvent implements Serializable {
+    private static final long serialVersionUID = 6039474452807117325L;
+    String operationType;
+    String uuid;
+    String loginName;
+    String newLoginName;
+    String realName;
+    long clock;
+    long hlc;
+
+    /**
+     * Builds the event of a logged operation.
+     *
+     * @param operation the operation.
+     */
+    public ChangeEvent(UserDbOperation operation) {
+        this.operationType = operation.getOperationType();
+        this.uuid = operation.getUuid() == null ? null : operation.getUuid().toString();
+        this.loginName = operation.getLoginName();
+        this.newLoginName = operation.getNewLoginName();
+        this.realName = operation.getRealName();
+        this.clock = operation.getOperationTimestamp();
+        this.hlc = operation.getHlc();
+    }
+
+    /**
+     * Gets the operation type.
+     *
+     * @return one of {@link UserDbOperation#CREATE}, {@link UserDbOperation#MODIFY} or
+     * {@link UserDbOperation#DELETE}.
+     */
+    public String getOperationType() {
+        return operationType;
+    }
+
+    /**
+     * Gets the uuid of the user.
+     *
+     * @return the uuid.
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Gets the login name of the user, before a modify.
+     *
+     * @return the login name.
+     */
+    public String getLoginName() {
+        return loginName;
+    }
+
+    /**
+     * Gets the new login name of a modify.
+     *
+     * @return the new login name.
+     */
+    public String getNewLoginName() {
+        return newLoginName;
+    }
+
+    /**
+     * Gets the real name of a created user.
+     *
+     * @return the real name.
+     */
+    public String getRealName() {
+        return realName;
+    }
+
+    /**
+     * Gets the Lamport clock value of the change on the server that delivered it, which is its offset in the feed.
+     *
+     * @return the clock value.
+     */
+    public long getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets the hybrid logical clock timestamp of the change.
+     *
+     * @return the timestamp, 0 if the change was not stamped.
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "clock=" + clock +
+                ", operationType='" + operationType + '\'' +
+                ", uuid=" + uuid +
+                ", loginName='" + loginName + '\'' +
+                ", newLoginName='" + newLoginName + '\'' +
+                ", realName='" + realName + '\'' +
+                ", hlc=" + hlc +
+                '}';
+    }
+}
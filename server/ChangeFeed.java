@@ -0,0 +1,98 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+
+/**
+ * The ChangeFeed class delivers the creates, modifies and deletes of the directory to downstream consumers, in
+ * Lamport clock order, so they can process changes instead of reloading the full directory.
+ * <p>
+ * The feed is read from the operation log of this server. Every consumer has an offset, the Lamport clock value
+ * of the last change it has committed, saved in the redis hash {@code cdc_offsets}, so a consumer that restarts
+ * resumes where it stopped. A consumer asks for the next batch after its offset; if there is no change yet the
+ * call waits up to the given time for one, so consumers do not need to poll in a tight loop. Offsets are Lamport
+ * clock values of this server, so a consumer should keep reading from the same server.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ChangeFeed {
+    private static final String OFFSETS_KEY = "cdc_offsets";
+    private static final int MAX_BATCH = Integer.getInteger("p4.cdc.maxBatch", 1000);
+    private static final long MAX_WAIT = Long.getLong("p4.cdc.maxWait", 30000);
+
+    private final JedisPool pool = new JedisPool("localhost", 6379);
+    private final OperationLog operationLog;
+
+    /**
+     * Constructs the feed.
+     *
+     * @param operationLog the operation log to read the changes from.
+     */
+    public ChangeFeed(OperationLog operationLog) {
+        this.operationLog = operationLog;
+    }
+
+    /**
+     * Gets the next batch of changes after a consumer's committed offset.
+     *
+     * @param consumerId the consumer.
+     * @param maxBatch   the largest number of changes to return, at most {@code p4.cdc.maxBatch}.
+     * @param waitMillis how long to wait for a change if there is none yet, at most {@code p4.cdc.maxWait}.
+     * @return the batch, empty if no change happened while waiting.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public ChangeBatch poll(String consumerId, int maxBatch, long waitMillis) throws InterruptedException {
+        long offset = getOffset(consumerId);
+        int limit = Math.max(1, Math.min(maxBatch, MAX_BATCH));
+        long deadline = System.currentTimeMillis() + Math.min(waitMillis, MAX_WAIT);
+        while (true) {
+            ArrayList<UserDbOperation> operations = operationLog.since(offset, limit);
+            if (operations == null) {
+                /**
+                 * the consumer reloads the full directory, which holds every change up to now
+                 */
+                return new ChangeBatch(new ArrayList<ChangeEvent>(), operationLog.getNewestClock(), true);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (!operations.isEmpty() || remaining <= 0) {
+                ArrayList<ChangeEvent> events = new ArrayList<ChangeEvent>();
+                long nextOffset = offset;
+                for (UserDbOperation operation : operations) {
+                    events.add(new ChangeEvent(operation));
+                    nextOffset = operation.getOperationTimestamp();
+                }
+                return new ChangeBatch(events, nextOffset, false);
+            }
+            OperationLog.awaitAppend(remaining);
+        }
+    }
+
+    /**
+     * Commits a consumer's offset once it has processed the changes up to it.
+     *
+     * @param consumerId the consumer.
+     * @param offset     the Lamport clock value of the last processed change.
+     */
+    public void commit(String consumerId, long offset) {
+        try (Jedis jedis = pool.getResource()) {
+            jedis.hset(OFFSETS_KEY, consumerId, Long.toString(offset));
+        }
+    }
+
+    /**
+     * Gets a consumer's committed offset.
+     *
+     * @param consumerId the consumer.
+     * @return the offset, 0 for a new consumer.
+     */
+    public long getOffset(String consumerId) {
+        try (Jedis jedis = pool.getResource()) {
+            String offset = jedis.hget(OFFSETS_KEY, consumerId);
+            return offset == null ? 0 : Long.parseLong(offset);
+        }
+    }
+}
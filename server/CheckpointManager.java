@@ -0,0 +1,358 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The CheckpointManager class writes the user database and the Lamport clock to a compact binary file and
+ * loads it back when a server starts.
+ * <p>
+ * Two checkpoint files are used in turn (double-buffering): a new checkpoint always overwrites the older
+ * file, so the newest complete checkpoint is never touched while a new one is being written. Users are read
+ * from redis with SCAN pages and no lock is taken, so serving goes on while a checkpoint is written. The
+ * Lamport clock is read before the scan, which means every write that the scan may have missed has a greater
+ * clock value and is replayed from the operation log after loading.
+ * </p>
+ * <p>
+ * File layout: magic, version, Lamport clock, then one record per user (marker byte 1, uuid, login name,
+ * real name, encrypted password, ip address, created and updated time), an end marker byte 0, the user count
+ * and a CRC32 of everything before it. A file with a wrong CRC (for example a crash while writing) is ignored.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class CheckpointManager {
+    private static final int MAGIC = 0x49445350; // "IDSP"
+    private static final int VERSION = 1;
+    private static final String LAMPORT_KEY = "lamport_key";
+    private static final int SCAN_PAGE_SIZE = 1000;
+    /**
+     * the largest part of a checkpoint file mapped at once
+     */
+    private static final long MAP_WINDOW = Long.getLong("p4.checkpoint.mapWindow", 64L << 20);
+
+    private final JedisPool pool = new JedisPool("localhost", 6379);
+    private final Path[] checkpointFiles;
+    /**
+     * index of the checkpoint file that will be written next
+     */
+    private int nextFile;
+
+    /**
+     * Constructs a checkpoint manager that keeps its files in the given directory.
+     *
+     * @param directory the directory for the checkpoint files.
+     */
+    public CheckpointManager(String directory) {
+        Path dir = Paths.get(directory);
+        checkpointFiles = new Path[]{dir.resolve("checkpoint-0.bin"), dir.resolve("checkpoint-1.bin")};
+        /**
+         * the next checkpoint goes over the older one
+         */
+        nextFile = readClock(checkpointFiles[0]) <= readClock(checkpointFiles[1]) ? 0 : 1;
+    }
+
+    /**
+     * Writes a new checkpoint of the user database and the Lamport clock.
+     *
+     * @throws IOException if the checkpoint file cannot be written.
+     */
+    public synchronized void writeCheckpoint() throws IOException {
+        long startTime = System.currentTimeMillis();
+        Path target = checkpointFiles[nextFile];
+        Files.createDirectories(target.getParent());
+        CRC32 crc = new CRC32();
+        int count = 0;
+        try (Jedis jedis = pool.getResource();
+             DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(target.toFile()), 1 << 16), crc))) {
+            String clockValue = jedis.get(LAMPORT_KEY);
+            long clock = clockValue == null || clockValue.isEmpty() ? 0 : Long.parseLong(clockValue);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(clock);
+
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> scanResult = jedis.scan(cursor,
+                        new ScanParams().match("user-*").count(SCAN_PAGE_SIZE));
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+                for (String userKey : scanResult.getResult()) {
+                    responses.add(pipeline.hgetAll(userKey));
+                }
+                pipeline.sync();
+                for (Response<Map<String, String>> response : responses) {
+                    if (!response.get().isEmpty()) {
+                        writeUser(out, User.userFromMap(response.get()));
+                        count++;
+                    }
+                }
+                cursor = scanResult.getCursor();
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+            out.writeByte(0);
+            out.writeInt(count);
+            out.flush();
+            /**
+             * the crc is written last and is not part of itself
+             */
+            long checksum = crc.getValue();
+            out.writeLong(checksum);
+        }
+        nextFile = 1 - nextFile;
+        System.out.println("checkpoint of " + count + " users written to " + target + " in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Loads the newest valid checkpoint into redis if it is newer than what redis has.
+     * <p>
+     * The users in redis are deleted first, so a user that was deleted before the checkpoint was written does not
+     * come back: the operations replayed afterwards start after the checkpoint's clock and never delete it again.
+     * </p>
+     *
+     * @return the Lamport clock value of the loaded checkpoint, or -1 if nothing was loaded.
+     */
+    public synchronized long restore() {
+        Path newest = readClock(checkpointFiles[0]) >= readClock(checkpointFiles[1])
+                ? checkpointFiles[0] : checkpointFiles[1];
+        long checkpointClock = readClock(newest);
+        if (checkpointClock < 0) {
+            return -1;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            String clockValue = jedis.get(LAMPORT_KEY);
+            long redisClock = clockValue == null || clockValue.isEmpty() ? 0 : Long.parseLong(clockValue);
+            if (redisClock >= checkpointClock) {
+                return -1;
+            }
+            long startTime = System.currentTimeMillis();
+            int count = 0;
+            try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ)) {
+                deleteUsers(jedis);
+                FileWindow file = new FileWindow(channel, 16);
+                Pipeline pipeline = jedis.pipelined();
+                while (file.get() == 1) {
+                    User user = readUser(file);
+                    pipeline.hset("user-" + user.getUuid().toString(), user.toMap());
+                    UserIndex.add(pipeline, user);
+                    if (++count % SCAN_PAGE_SIZE == 0) {
+                        pipeline.sync();
+                    }
+                }
+                pipeline.sync();
+            } catch (IOException e) {
+                System.out.println("could not load checkpoint " + newest + ": " + e);
+                return -1;
+            }
+            jedis.set(LAMPORT_KEY, Long.toString(checkpointClock));
+            System.out.println("loaded " + count + " users from checkpoint " + newest + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+            return checkpointClock;
+        }
+    }
+
+    /**
+     * Deletes every user and the user index from redis, page by page.
+     *
+     * @param jedis the Jedis object representing the connection to the Redis database.
+     */
+    private static void deleteUsers(Jedis jedis) {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> scanResult = jedis.scan(cursor, new ScanParams().match("user-*").count(SCAN_PAGE_SIZE));
+            if (!scanResult.getResult().isEmpty()) {
+                jedis.del(scanResult.getResult().toArray(new String[0]));
+            }
+            cursor = scanResult.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        UserIndex.clear(jedis);
+    }
+
+    /**
+     * Reads the Lamport clock value of a checkpoint file after checking its CRC.
+     *
+     * @param file the checkpoint file.
+     * @return the Lamport clock value, or -1 if the file is missing or not valid.
+     */
+    private static long readClock(Path file) {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 16 + 1 + 4 + 8) {
+                return -1;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return -1;
+            }
+            /**
+             * the file can be larger than one mapping, so the crc is computed window by window
+             */
+            CRC32 crc = new CRC32();
+            long contentSize = size - 8;
+            for (long position = 0; position < contentSize; position += MAP_WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, contentSize - position)));
+            }
+            if (crc.getValue() != channel.map(FileChannel.MapMode.READ_ONLY, contentSize, 8).getLong(0)) {
+                return -1;
+            }
+            return header.getLong(8);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes one user record.
+     *
+     * @param out  the checkpoint stream.
+     * @param user the user to write.
+     * @throws IOException if the user cannot be written.
+     */
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeByte(1);
+        out.writeLong(user.getUuid().getMostSignificantBits());
+        out.writeLong(user.getUuid().getLeastSignificantBits());
+        writeString(out, user.getLoginName());
+        writeString(out, user.getRealName());
+        writeString(out, user.getEncryptedPassword());
+        writeString(out, user.getIpAddress());
+        writeTime(out, user.getCreatedAt());
+        writeTime(out, user.getUpdatedAt());
+    }
+
+    /**
+     * Reads one user record written by {@link #writeUser}, after its marker byte.
+     *
+     * @param file the mapped checkpoint file.
+     * @return the user.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static User readUser(FileWindow file) throws IOException {
+        UUID uuid = new UUID(file.getLong(), file.getLong());
+        String loginName = readString(file);
+        String realName = readString(file);
+        String encryptedPassword = readString(file);
+        String ipAddress = readString(file);
+        LocalDateTime createdAt = readTime(file);
+        LocalDateTime updatedAt = readTime(file);
+        return new User(loginName, realName, encryptedPassword, uuid, ipAddress, createdAt, updatedAt);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(FileWindow file) throws IOException {
+        int length = file.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(file.getBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(FileWindow file) throws IOException {
+        long seconds = file.getLong();
+        int nanos = file.getInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    /**
+     * Reads a file through a mapped window of at most {@code MAP_WINDOW} bytes that moves along the file, because
+     * one mapping cannot be larger than 2 GB.
+     */
+    private static class FileWindow {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        FileWindow(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(position, 0);
+        }
+
+        byte get() throws IOException {
+            ensure(1);
+            return window.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        byte[] getBytes(int length) throws IOException {
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Moves the window to the current position if fewer than the given bytes are left in it.
+         */
+        private void ensure(int length) throws IOException {
+            if (window.remaining() < length) {
+                map(windowStart + window.position(), length);
+            }
+        }
+
+        private void map(long position, int length) throws IOException {
+            if (position + length > size) {
+                throw new IOException("checkpoint ends in the middle of a record");
+            }
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(size - position, Math.max(MAP_WINDOW, length)));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The DedupWindow class remembers which replicated operations this server has already applied, so an operation
+ * that is delivered more than once (a batch sent again after its acknowledgement was lost, or the same operation
+ * arriving from the outbox and from the catch-up replay) is applied only once.
+ * <p>
+ * An operation is identified by the server that first applied it and its Lamport clock value there (see
+ * {@link UserDbOperation#getOriginServer()}). For every origin server the window keeps a floor and the clock
+ * values seen above the floor, at most {@code p4.dedup.window} of them. When the window is full the lowest clock
+ * value becomes the new floor, and every operation at or below the floor counts as already applied. Operations of
+ * one origin arrive almost in order, so the window stays small.
+ * </p>
+ * <p>
+ * Applying an old operation again is not harmless: a create replayed after a later delete brings the user back,
+ * and an old modify undoes a newer one. So the window is also kept in redis, next to the users, in the hash
+ * {@code dedup_floor} (the floor of every origin) and one sorted set {@code dedup_seen:<origin>} per origin, and it
+ * is loaded again when the server starts. An operation is recorded right after it is applied, under the same lock,
+ * so a crash in between can only make the server apply that same operation once more, before anything newer.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class DedupWindow {
+    private static final int WINDOW_SIZE = Integer.getInteger("p4.dedup.window", 1024);
+    private static final String FLOOR_KEY = "dedup_floor";
+    private static final String SEEN_KEY_PREFIX = "dedup_seen:";
+
+    private final Map<String, OriginWindow> origins = new HashMap<String, OriginWindow>();
+
+    /**
+     * Checks whether an operation has already been applied.
+     *
+     * @param operation the operation.
+     * @return true if the operation is a duplicate. Operations without an identity are never duplicates.
+     */
+    public synchronized boolean contains(UserDbOperation operation) {
+        if (operation.getOriginServer() == null) {
+            return false;
+        }
+        OriginWindow window = origins.get(operation.getOriginServer());
+        if (window == null) {
+            return false;
+        }
+        long clock = operation.getOriginClock();
+        return clock <= window.floor || window.seen.contains(clock);
+    }
+
+    /**
+     * Loads the window saved in redis, replacing the one in memory.
+     *
+     * @param jedis the redis connection.
+     */
+    public synchronized void load(Jedis jedis) {
+        origins.clear();
+        int count = 0;
+        for (Map.Entry<String, String> entry : jedis.hgetAll(FLOOR_KEY).entrySet()) {
+            OriginWindow window = new OriginWindow();
+            window.floor = Long.parseLong(entry.getValue());
+            for (String clock : jedis.zrange(SEEN_KEY_PREFIX + entry.getKey(), 0, -1)) {
+                window.seen.add(Long.parseLong(clock));
+            }
+            origins.put(entry.getKey(), window);
+            count += window.seen.size();
+        }
+        System.out.println("dedup window loaded for " + origins.size() + " origins, " + count + " operations");
+    }
+
+    /**
+     * Records an operation that has been applied, in memory and in redis.
+     *
+     * @param operation the operation.
+     * @param jedis     the redis connection the operation was applied with.
+     */
+    public synchronized void add(UserDbOperation operation, Jedis jedis) {
+        String origin = operation.getOriginServer();
+        if (origin == null) {
+            return;
+        }
+        OriginWindow window = origins.get(origin);
+        if (window == null) {
+            window = new OriginWindow();
+            origins.put(origin, window);
+            /**
+             * the floor hash also lists the origins, so loading needs no scan of the keys
+             */
+            jedis.hset(FLOOR_KEY, origin, Long.toString(window.floor));
+        }
+        long clock = operation.getOriginClock();
+        window.seen.add(clock);
+        jedis.zadd(SEEN_KEY_PREFIX + origin, clock, Long.toString(clock));
+        if (window.seen.size() > WINDOW_SIZE) {
+            while (window.seen.size() > WINDOW_SIZE) {
+                window.floor = window.seen.pollFirst();
+            }
+            jedis.hset(FLOOR_KEY, origin, Long.toString(window.floor));
+            jedis.zremrangeByScore(SEEN_KEY_PREFIX + origin, Long.MIN_VALUE, window.floor);
+        }
+    }
+
+    /**
+     * The operations seen from one origin server.
+     */
+    private static class OriginWindow {
+        private long floor = Long.MIN_VALUE;
+        private final TreeSet<Long> seen = new TreeSet<Long>();
+    }
+}
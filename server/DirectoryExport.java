@@ -0,0 +1,135 @@
+package p4.server;
+
+import com.google.gson.JsonObject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DirectoryExport class encodes the users of the directory for a streaming export, one SCAN page at a time,
+ * so neither the server nor the client ever holds the whole directory.
+ * <p>
+ * Two formats are supported. {@link #NDJSON} is one JSON object per user and line, with the fields {@code uuid},
+ * {@code loginName}, {@code realName}, {@code ipAddress}, {@code createdAt} and {@code updatedAt}. {@link #BINARY}
+ * is a file header ({@link #MAGIC} and {@link #VERSION}, written by the client), then one record per user (marker
+ * byte 1, uuid, login name, real name, ip address, created and updated time, like a checkpoint record) and an end
+ * marker byte 0 with the user count. Password hashes are never exported.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class DirectoryExport {
+    public static final String NDJSON = "ndjson";
+    public static final String BINARY = "binary";
+    public static final int MAGIC = 0x49444558; // "IDEX"
+    public static final int VERSION = 1;
+
+    private DirectoryExport() {
+    }
+
+    /**
+     * Reads one SCAN page of users and encodes it.
+     *
+     * @param jedis    the Jedis object representing the connection to the Redis database.
+     * @param cursor   the SCAN cursor, "0" for the first chunk.
+     * @param pageSize the number of keys to scan.
+     * @param format   {@link #NDJSON} or {@link #BINARY}.
+     * @return the chunk.
+     * @throws IllegalArgumentException if the format is not known.
+     */
+    public static ExportChunk chunk(Jedis jedis, String cursor, int pageSize, String format) {
+        if (!NDJSON.equals(format) && !BINARY.equals(format)) {
+            throw new IllegalArgumentException("unknown export format " + format);
+        }
+        ScanResult<String> scanResult = jedis.scan(cursor, new ScanParams().match("user-*").count(pageSize));
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+        for (String userKey : scanResult.getResult()) {
+            responses.add(pipeline.hgetAll(userKey));
+        }
+        pipeline.sync();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        try {
+            for (Response<Map<String, String>> response : responses) {
+                if (response.get().isEmpty()) {
+                    /**
+                     * deleted between the scan and the read
+                     */
+                    continue;
+                }
+                User user = User.userFromMap(response.get());
+                if (BINARY.equals(format)) {
+                    writeRecord(out, user);
+                } else {
+                    out.write(toJson(user).getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+                count++;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen with a byte array stream
+            throw new IllegalStateException(e);
+        }
+        return new ExportChunk(bytes.toByteArray(), count, scanResult.getCursor());
+    }
+
+    /**
+     * Encodes a user as one NDJSON line, without the line break.
+     *
+     * @param user the user.
+     * @return the JSON object.
+     */
+    private static String toJson(User user) {
+        JsonObject object = new JsonObject();
+        object.addProperty("uuid", user.getUuid().toString());
+        object.addProperty("loginName", user.getLoginName());
+        object.addProperty("realName", user.getRealName());
+        object.addProperty("ipAddress", user.getIpAddress());
+        object.addProperty("createdAt", String.valueOf(user.getCreatedAt()));
+        object.addProperty("updatedAt", String.valueOf(user.getUpdatedAt()));
+        return object.toString();
+    }
+
+    private static void writeRecord(DataOutputStream out, User user) throws IOException {
+        out.writeByte(1);
+        out.writeLong(user.getUuid().getMostSignificantBits());
+        out.writeLong(user.getUuid().getLeastSignificantBits());
+        writeString(out, user.getLoginName());
+        writeString(out, user.getRealName());
+        writeString(out, user.getIpAddress());
+        writeTime(out, user.getCreatedAt());
+        writeTime(out, user.getUpdatedAt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+}
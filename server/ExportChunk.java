@@ -0,0 +1,69 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The ExportChunk class is one chunk of a streaming export of the directory.
+ * <p>
+ * The users of the chunk are already encoded in the export format, so the client writes the bytes to its file as
+ * they are. The client asks for the next chunk with {@link #getNextCursor()} until {@link #isLast()}.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ExportChunk implements Serializable {
+    private static final long serialVersionUID = 1958217480365512730L;
+    byte[] data;
+    int count;
+    String nextCursor;
+
+    /**
+     * Constructs a chunk.
+     *
+     * @param data       the encoded users.
+     * @param count      the number of users in the chunk.
+     * @param nextCursor the redis SCAN cursor of the next chunk, "0" after the last chunk.
+     */
+    public ExportChunk(byte[] data, int count, String nextCursor) {
+        this.data = data;
+        this.count = count;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the encoded users.
+     *
+     * @return the bytes to append to the export file.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Gets the number of users in the chunk.
+     *
+     * @return the number of users.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the cursor of the next chunk.
+     *
+     * @return the cursor.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks if this is the last chunk of the export.
+     *
+     * @return true if there are no more users.
+     */
+    public boolean isLast() {
+        return "0".equals(nextCursor);
+    }
+}
@@ -0,0 +1,249 @@
+package p4.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FailureDetector class checks periodically whether the other servers are alive.
+ * <p>
+ * Every {@code p4.fd.interval} milliseconds each server is probed on its own thread, so a server that hangs
+ * does not delay the probes of the others. At most one probe per server is running: a new probe is not sent to a
+ * server while its last probe is still running, so a server that hangs holds one probe thread and no more, and
+ * the probes of the healthy servers always have a thread. A probe running for longer than
+ * {@code p4.fd.deadline} milliseconds counts as failed at once; the calls between servers have read timeouts
+ * (see {@link PeerSocketFactory}), so the probe thread itself is given back when the call times out.
+ * </p>
+ * <p>
+ * Suspicion is computed with the phi accrual method: the detector keeps the intervals between the last
+ * successful probes of every server, and phi is how unlikely it is, given the mean and standard deviation of
+ * those intervals, that the server is still alive after the time passed since its last successful probe. A
+ * server is suspected when phi goes over {@code p4.fd.phiThreshold}, or when {@link #MAX_FAILURES} probes in a
+ * row have failed (for example the connection was refused because the server is down).
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class FailureDetector {
+    private static final long INTERVAL = Long.getLong("p4.fd.interval", 100);
+    private static final long DEADLINE = Long.getLong("p4.fd.deadline", 500);
+    private static final double PHI_THRESHOLD = Double.parseDouble(System.getProperty("p4.fd.phiThreshold", "8"));
+    private static final int MAX_FAILURES = 2;
+    private static final int HISTORY_SIZE = 100;
+    /**
+     * lower bound of the standard deviation, so that a very regular server is not suspected after one late probe
+     */
+    private static final double MIN_STD_DEVIATION = INTERVAL / 2.0;
+
+    /**
+     * A heartbeat call to one server.
+     */
+    public interface Probe {
+        void probe(String addr) throws Exception;
+    }
+
+    /**
+     * Receives the changes of the servers' status.
+     */
+    public interface Listener {
+        void peerSuspected(String addr);
+
+        void peerRecovered(String addr);
+    }
+
+    private final List<String> peers;
+    private final Probe probe;
+    private final Listener listener;
+    private final Map<String, PeerState> states = new ConcurrentHashMap<String, PeerState>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "failure-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ThreadPoolExecutor probeExecutor;
+
+    /**
+     * Constructs a failure detector.
+     *
+     * @param peers    the addresses of the servers to probe.
+     * @param probe    the heartbeat call.
+     * @param listener receives the changes of the servers' status.
+     */
+    public FailureDetector(List<String> peers, Probe probe, Listener listener) {
+        this.peers = peers;
+        this.probe = probe;
+        this.listener = listener;
+        for (String peer : peers) {
+            states.put(peer, new PeerState());
+        }
+        /**
+         * one thread per server is enough, because at most one probe per server is running
+         */
+        probeExecutor = new ThreadPoolExecutor(0, Math.max(1, peers.size()), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, "failure-detector-probe");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Starts probing the servers.
+     */
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::probeAll, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing the servers.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    /**
+     * Checks whether a server is currently suspected.
+     *
+     * @param addr the address of the server.
+     * @return true if the server is suspected.
+     */
+    public boolean isSuspected(String addr) {
+        PeerState state = states.get(addr);
+        return state != null && state.suspected;
+    }
+
+    /**
+     * Sends a probe to every server whose last probe is finished, counts a probe past its deadline as failed,
+     * and updates the status of every server.
+     */
+    private void probeAll() {
+        long now = System.currentTimeMillis();
+        for (String peer : peers) {
+            PeerState state = states.get(peer);
+            synchronized (state) {
+                if (state.probeStartedAt == 0) {
+                    state.probeStartedAt = now;
+                    state.overdue = false;
+                    probeExecutor.execute(() -> runProbe(peer, state));
+                } else if (!state.overdue && now - state.probeStartedAt > DEADLINE) {
+                    state.overdue = true;
+                    state.failures++;
+                }
+            }
+            updateStatus(peer, state, now);
+        }
+    }
+
+    /**
+     * Runs one probe and records its result.
+     *
+     * @param peer  the address of the server.
+     * @param state the server's state.
+     */
+    private void runProbe(String peer, PeerState state) {
+        boolean alive;
+        try {
+            probe.probe(peer);
+            alive = true;
+        } catch (Exception e) {
+            alive = false;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (state) {
+            state.probeStartedAt = 0;
+            if (alive) {
+                state.heartbeat(now);
+            } else if (!state.overdue) {
+                state.failures++;
+            }
+        }
+        updateStatus(peer, state, now);
+    }
+
+    /**
+     * Suspects a server or clears the suspicion, and tells the listener if the status changed.
+     *
+     * @param peer  the address of the server.
+     * @param state the server's state.
+     * @param now   the current time.
+     */
+    private void updateStatus(String peer, PeerState state, long now) {
+        boolean suspectedNow;
+        boolean changed;
+        synchronized (state) {
+            suspectedNow = state.failures >= MAX_FAILURES || state.phi(now) > PHI_THRESHOLD;
+            changed = suspectedNow != state.suspected;
+            state.suspected = suspectedNow;
+        }
+        if (changed) {
+            if (suspectedNow) {
+                listener.peerSuspected(peer);
+            } else {
+                listener.peerRecovered(peer);
+            }
+        }
+    }
+
+    /**
+     * Heartbeat history of one server.
+     */
+    private static class PeerState {
+        private final Deque<Long> intervals = new ArrayDeque<Long>();
+        private long intervalSum;
+        private long intervalSquareSum;
+        private long lastHeartbeat;
+        private long probeStartedAt;
+        /**
+         * true once the running probe has passed its deadline and been counted as failed
+         */
+        private boolean overdue;
+        private int failures;
+        private boolean suspected;
+
+        void heartbeat(long now) {
+            if (lastHeartbeat != 0) {
+                long interval = now - lastHeartbeat;
+                intervals.addLast(interval);
+                intervalSum += interval;
+                intervalSquareSum += interval * interval;
+                if (intervals.size() > HISTORY_SIZE) {
+                    long oldest = intervals.removeFirst();
+                    intervalSum -= oldest;
+                    intervalSquareSum -= oldest * oldest;
+                }
+            }
+            lastHeartbeat = now;
+            failures = 0;
+        }
+
+        /**
+         * Computes phi with the logistic approximation of the normal distribution.
+         *
+         * @param now the current time.
+         * @return phi, 0 while there is no history.
+         */
+        double phi(long now) {
+            if (intervals.isEmpty()) {
+                return 0;
+            }
+            double mean = (double) intervalSum / intervals.size();
+            double variance = (double) intervalSquareSum / intervals.size() - mean * mean;
+            double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), MIN_STD_DEVIATION);
+            double y = (now - lastHeartbeat - mean) / stdDeviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - lastHeartbeat > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The ForwardedWrite class represents a client's create, modify or delete request that a server which is not the
+ * coordinator passes on to the coordinator.
+ * <p>
+ * It carries the request as the client sent it, together with the address of the client, so the coordinator can
+ * apply it exactly as if the client had connected to it.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ForwardedWrite implements Serializable {
+    private static final long serialVersionUID = 2873346520198470641L;
+    String operationType;
+    String loginName;
+    String newLoginName;
+    String realName;
+    String password;
+    String ipAddress;
+
+    /**
+     * Constructs a forwarded write.
+     *
+     * @param operationType one of {@link UserDbOperation#CREATE}, {@link UserDbOperation#MODIFY} or
+     *                      {@link UserDbOperation#DELETE}.
+     * @param loginName     the login name of the user.
+     * @param newLoginName  the new login name, for a modify.
+     * @param realName      the real name, for a create.
+     * @param password      the password as the client sent it.
+     * @param ipAddress     the address of the client.
+     */
+    public ForwardedWrite(String operationType, String loginName, String newLoginName, String realName,
+                          String password, String ipAddress) {
+        this.operationType = operationType;
+        this.loginName = loginName;
+        this.newLoginName = newLoginName;
+        this.realName = realName;
+        this.password = password;
+        this.ipAddress = ipAddress;
+    }
+
+    /**
+     * Gets the operation type.
+     *
+     * @return the operation type.
+     */
+    public String getOperationType() {
+        return operationType;
+    }
+
+    /**
+     * Gets the login name.
+     *
+     * @return the login name.
+     */
+    public String getLoginName() {
+        return loginName;
+    }
+
+    /**
+     * Gets the new login name.
+     *
+     * @return the new login name.
+     */
+    public String getNewLoginName() {
+        return newLoginName;
+    }
+
+    /**
+     * Gets the real name.
+     *
+     * @return the real name.
+     */
+    public String getRealName() {
+        return realName;
+    }
+
+    /**
+     * Gets the password.
+     *
+     * @return the password.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Gets the IP address of the client.
+     *
+     * @return the IP address of the client.
+     */
+    public String getIpAddress() {
+        return ipAddress;
+    }
+}
@@ -0,0 +1,86 @@
+package p4.server;
+
+/**
+ * The HybridLogicalClock class is a 64-bit hybrid logical clock, stamped on every {@link UserDbOperation}.
+ * <p>
+ * The upper 48 bits of a timestamp are the physical time in milliseconds and the lower 16 bits a logical counter.
+ * A new timestamp is the current physical time if it is ahead of the last timestamp, and otherwise the last
+ * timestamp with its counter increased, so timestamps always grow even if the wall clock steps back. When an
+ * operation from another server is applied the clock moves past the operation's timestamp, so an operation is
+ * always stamped after every operation applied before it on any server, like with a Lamport clock, while the
+ * timestamp still tells when (approximately) the operation happened.
+ * </p>
+ * <p>
+ * The clock is kept in memory. On startup it is seeded with the newest timestamp in the operation log so that it
+ * never goes back across a restart.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class HybridLogicalClock {
+    private static final int LOGICAL_BITS = 16;
+    private static final long LOGICAL_MASK = (1L << LOGICAL_BITS) - 1;
+
+    private long last;
+
+    /**
+     * Constructs a clock.
+     *
+     * @param seed the newest timestamp already used, 0 if none.
+     */
+    public HybridLogicalClock(long seed) {
+        this.last = seed;
+    }
+
+    /**
+     * Gets a new timestamp for an operation applied on this server.
+     *
+     * @return the timestamp, greater than every timestamp returned or seen before.
+     */
+    public synchronized long now() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        last = physical > last ? physical : last + 1;
+        return last;
+    }
+
+    /**
+     * Moves the clock past the timestamp of an operation received from another server.
+     *
+     * @param remote the timestamp of the operation, 0 if it has none.
+     */
+    public synchronized void update(long remote) {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        last = Math.max(last, Math.max(physical, remote));
+    }
+
+    /**
+     * Gets the physical part of a timestamp.
+     *
+     * @param timestamp the timestamp.
+     * @return the physical time in milliseconds.
+     */
+    public static long physicalMillis(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    /**
+     * Gets the logical part of a timestamp.
+     *
+     * @param timestamp the timestamp.
+     * @return the logical counter.
+     */
+    public static long logical(long timestamp) {
+        return timestamp & LOGICAL_MASK;
+    }
+
+    /**
+     * Gets the first timestamp of a physical time, to compare timestamps with a time.
+     *
+     * @param millis the physical time in milliseconds.
+     * @return the smallest timestamp with that physical time.
+     */
+    public static long fromMillis(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+}
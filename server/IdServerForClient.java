@@ -3,6 +3,8 @@ package p4.server;
 import com.google.gson.Gson;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
@@ -43,10 +45,69 @@ public class IdServerForClient implements IdServerInterfaceForClient {
     // Define a lock object
     private final Object lock = new Object();
     private String LAMPORT_KEY = "lamport_key";
+    /**
+     * log of every operation applied on this server
+     */
+    private final OperationLog operationLog = new OperationLog();
+    /**
+     * feed of the changes in the operation log for downstream consumers
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(operationLog);
     /**
      * list to hold all servers informations
      */
     private List<String> serverAddrs = new ArrayList<>();
+    /**
+     * cached stubs of the other servers
+     */
+    private PeerStubCache<IdServerInterfaceForServer> peerStubs;
+    /**
+     * this server's server side, which knows the coordinator and its read lease
+     */
+    private IdServerForServer serverForServer;
+    /**
+     * cached client side stubs of the other servers, to pass reads on to the coordinator
+     */
+    private PeerStubCache<IdServerInterfaceForClient> clientStubs;
+    /**
+     * passes the writes of my clients on to the coordinator when I am not the coordinator
+     */
+    private WriteForwarder writeForwarder;
+    /**
+     * delivers the operations applied on this server to the other servers
+     */
+    private ReplicationOutbox replicationOutbox;
+
+    /**
+     * the address of the client whose request runs on the current executor thread
+     */
+    private static final ThreadLocal<String> CLIENT_HOST = new ThreadLocal<String>();
+    /**
+     * turns away client requests over the per host and per kind limits
+     */
+    private AdmissionController admissionController;
+
+    /**
+     * requests being worked on and the times of the recent ones, for the load report
+     */
+    private final RequestStats requestStats = new RequestStats();
+
+    /**
+     * the largest number of keys of one batch lookup
+     */
+    private static final int LOOKUP_MAX_BATCH = Integer.getInteger("p4.lookup.maxBatch", 10000);
+    /**
+     * the largest number of users of one import call
+     */
+    private static final int IMPORT_MAX_BATCH = Integer.getInteger("p4.import.maxBatch", 5000);
+    /**
+     * the largest page of one export chunk
+     */
+    private static final int EXPORT_MAX_PAGE = Integer.getInteger("p4.export.maxPage", 10000);
+    /**
+     * redis connections of the batch lookups and exports, which are kept open between calls
+     */
+    private final JedisPool lookupPool = new JedisPool("localhost", 6379);
 
     /**
      * variable to save server's own address
@@ -59,7 +120,8 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @throws RemoteException
      */
     public IdServerForClient(String serverAddr, int REGISTRY_PORT, int SERVER_SIDE_REGISTRY_PORT,
-                             List<String> serverAddrs)
+                             List<String> serverAddrs, PeerStubCache<IdServerInterfaceForServer> peerStubs,
+                             IdServerForServer serverForServer)
             throws RemoteException, NotBoundException {
         super();
         /*
@@ -74,11 +136,18 @@ public class IdServerForClient implements IdServerInterfaceForClient {
          * adding all server info
          */
         this.serverAddrs = serverAddrs;
+        this.peerStubs = peerStubs;
+        this.serverForServer = serverForServer;
+        this.clientStubs = new PeerStubCache<>(REGISTRY_PORT, "IdServerForClient");
+        this.writeForwarder = new WriteForwarder(serverAddr, serverForServer, peerStubs);
+        this.replicationOutbox = new ReplicationOutbox(serverAddr, serverAddrs, IdServerMain.REPLICATION_PORT);
+        this.admissionController = new AdmissionController(serverAddrs);
 
         try (Jedis jedis = pool.getResource()) {
 
             Set<String> userKeys = jedis.keys("user-*"); // Get all keys from the hash
             System.out.println("Already Saved User:" + userKeys.size());
+            UserIndex.buildIfMissing(jedis);
             pool.close();
         }
     }
@@ -190,8 +259,44 @@ public class IdServerForClient implements IdServerInterfaceForClient {
     /**
      * Creates a new user with the provided login name, real name, and password.
      * <p>
+     * Only the coordinator applies writes, so that two servers never accept
+     * conflicting writes at the same time. If I am not the coordinator the request
+     * is passed on to the coordinator through the {@link WriteForwarder} and its
+     * response is returned to the client. Only the coordinator's own apply runs
+     * on the write executor; a passed on write waits for the coordinator without
+     * holding one of its threads, so a slow coordinator cannot fill it.
+     * </p>
+     *
+     * @param loginName the login name for the new user.
+     * @param realName  the real name for the new user.
+     * @param password  the password for the new user.
+     * @return a response indicating the success or failure of the user creation
+     * process.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String createUser(String loginName, String realName, String password) throws RemoteException {
+        return admitted(RequestClass.WRITE, () -> {
+            String ipAddress;
+            try {
+                ipAddress = getClientHost();
+                System.out.println("getting a create user request in " + serverAddr + ", from " + ipAddress);
+            } catch (ServerNotActiveException e) {
+                System.out.println("Exception in createUser of Server: " + e.getMessage());
+                return "some error occured";
+            }
+            if (!isCoordinatorHere()) {
+                return writeForwarder.forward(new ForwardedWrite(UserDbOperation.CREATE, loginName, null, realName,
+                        password, ipAddress));
+            }
+            return inBulkhead(RequestClass.WRITE, () -> applyCreate(loginName, realName, password, ipAddress));
+        });
+    }
+
+    /**
+     * Applies a create request on the coordinator.
+     * <p>
      * This method synchronizes on a lock object to ensure thread safety.
-     * It prints debug information regarding the server address and client host.
      * It fetches all existing users from Redis and checks if the provided login
      * name
      * is already in use. If the login name is not in use, it proceeds to create the
@@ -201,20 +306,14 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @param loginName the login name for the new user.
      * @param realName  the real name for the new user.
      * @param password  the password for the new user.
+     * @param ipAddress the address of the client that sent the request.
      * @return a response indicating the success or failure of the user creation
      * process.
      * @throws RemoteException if there is a problem accessing the remote object.
      */
-    @Override
-    public synchronized String createUser(String loginName, String realName, String password) throws RemoteException {
-
-        try {
-            System.out.println(
-                    "getting a create user request in " + serverAddr + ", from " + RemoteServer.getClientHost());
-        } catch (ServerNotActiveException e) {
-            System.out.println("check line 1");
-            e.printStackTrace();
-        }
+    synchronized String applyCreate(String loginName, String realName, String password, String ipAddress)
+            throws RemoteException {
+        serverForServer.awaitWriteFence();
         /**
          * fetch all users from redis
          */
@@ -243,9 +342,6 @@ public class IdServerForClient implements IdServerInterfaceForClient {
         System.out.println("check line 5");
 
         try {
-
-            String ipAddress = RemoteServer.getClientHost();
-
             /*
              * connecting to jedispool
              */
@@ -275,48 +371,25 @@ public class IdServerForClient implements IdServerInterfaceForClient {
             // saveOperation(loginName, realName, password, ipAddress, uuid, createdAt);
             pool.close();
 
-            System.out.println("updating other server one by one");
             /**
              * getting lamport clock value
              */
             int lamportClockValue = getLamportClockValue();
-
-            for (String otherServerAddr : serverAddrs) {
-                /**
-                 * I wont send it to my self.
-                 */
-                if (!serverAddr.equals(otherServerAddr)) {
-                    System.out.println("updating " + otherServerAddr);
-                    try {
-                        Registry registry = LocateRegistry.getRegistry(otherServerAddr, SERVER_SIDE_REGISTRY_PORT);
-                        IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry
-                                .lookup("IdServerForServer");
-
-                        String response = stub.createUser(loginName, realName, password, ipAddress, uuid, createdAt,
-                                lamportClockValue);
-
-                        System.out.println("response: " + response);
-
-                    } catch (NotBoundException e) {
-                        System.out.println("some error " + e);
-                        continue;
-                    } catch (RemoteException e) {
-                        System.out.println("some error " + e);
-                        continue;
-                    }
-
-                }
-            }
+            /**
+             * logging the operation and saving it for the other servers
+             */
+            UserDbOperation operation = new UserDbOperation(UserDbOperation.CREATE, uuid, loginName, null, realName,
+                    encryptedPassword, ipAddress, createdAt, createdAt, lamportClockValue);
+            operation.setOrigin(serverAddr, lamportClockValue);
+            serverForServer.stampOperation(operation);
+            operationLog.append(operation);
+            replicationOutbox.add(operation);
 
             /**
              * send client the uuid
              */
             return uuid.toString();
 
-        } catch (ServerNotActiveException e) {
-            System.out.println("Exception in createUser of Server: " + e.getMessage());
-            return "some error occured";
-
         } catch (JsonSyntaxException e) {
             System.err.println("Error occurred while serializing user object to JSON: " + e.getMessage());
             return "some error occured";
@@ -325,16 +398,162 @@ public class IdServerForClient implements IdServerInterfaceForClient {
 
     }
 
+    /**
+     * Retrieves one chunk of a streaming export of the directory (see
+     * {@link DirectoryExport}). Every call scans one page of at most
+     * {@code p4.export.maxPage} (10000) keys, so an export of any size uses
+     * little memory on the server. The cursor belongs to this server's redis, so
+     * the client asks the same server for every chunk.
+     *
+     * @param cursor   the cursor returned with the previous chunk, "0" to start.
+     * @param pageSize the number of users per chunk.
+     * @param format   "ndjson" or "binary".
+     * @return the chunk.
+     * @throws RemoteException if the format is not known or there is a problem
+     *                         accessing the remote object.
+     */
+    @Override
+    public ExportChunk exportChunk(String cursor, int pageSize, String format) throws RemoteException {
+        return serve(RequestClass.LISTING, () -> {
+            int count = Math.max(1, Math.min(pageSize, EXPORT_MAX_PAGE));
+            try (Jedis jedis = lookupPool.getResource()) {
+                return DirectoryExport.chunk(jedis, cursor, count, format);
+            } catch (IllegalArgumentException e) {
+                throw new RemoteException(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Creates many users with one call, for onboarding.
+     * <p>
+     * Like a single create, the import is applied on the coordinator; another
+     * server passes the whole batch on to it. At most {@code p4.import.maxBatch}
+     * (5000) rows are accepted per call.
+     * </p>
+     *
+     * @param rows the users to create.
+     * @return the number of users created and the rows that failed.
+     * @throws RemoteException if the batch is too large, the coordinator cannot
+     *                         be reached or there is a problem accessing the
+     *                         remote object.
+     */
+    @Override
+    public ImportReport importUsers(ArrayList<ImportRow> rows) throws RemoteException {
+        return admitted(RequestClass.WRITE, () -> {
+            if (rows.size() > IMPORT_MAX_BATCH) {
+                throw new RemoteException("at most " + IMPORT_MAX_BATCH + " users can be imported in one call");
+            }
+            String ipAddress;
+            try {
+                ipAddress = getClientHost();
+            } catch (ServerNotActiveException e) {
+                ipAddress = serverAddr;
+            }
+            if (!isCoordinatorHere()) {
+                String coordinatorAddr = serverForServer.getCoordinator();
+                if (coordinatorAddr == null) {
+                    throw new RemoteException("no coordinator is available, please try again.");
+                }
+                try {
+                    return clientStubs.call(coordinatorAddr, stub -> stub.importUsers(rows));
+                } catch (NotBoundException e) {
+                    throw new RemoteException("no coordinator is available, please try again.", e);
+                }
+            }
+            String clientAddress = ipAddress;
+            return inBulkhead(RequestClass.WRITE, () -> applyImport(rows, clientAddress));
+        });
+    }
+
+    /**
+     * Applies an import on the coordinator.
+     * <p>
+     * Login names are checked against the login name index and against the
+     * other rows of the batch with one redis command, instead of a scan of every
+     * user per row. The new users are written with one pipeline, the Lamport
+     * clock is moved past the whole batch at once, and the operations are logged
+     * and queued for the other servers in one pipeline each, so the replication
+     * streams carry them in large batches.
+     * </p>
+     *
+     * @param rows      the users to create.
+     * @param ipAddress the address of the client that sent the import.
+     * @return the number of users created and the rows that failed.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    synchronized ImportReport applyImport(ArrayList<ImportRow> rows, String ipAddress) throws RemoteException {
+        serverForServer.awaitWriteFence();
+        ImportReport report = new ImportReport();
+        List<String> loginNames = new ArrayList<String>();
+        for (ImportRow row : rows) {
+            loginNames.add(row.getLoginName() == null ? "" : row.getLoginName());
+        }
+        JedisPool pool = new JedisPool("localhost", 6379);
+        try (Jedis jedis = pool.getResource()) {
+            List<String> existing = rows.isEmpty() ? new ArrayList<String>() : UserIndex.uuidsOf(jedis, loginNames);
+            Set<String> namesInBatch = new HashSet<String>();
+            List<User> users = new ArrayList<User>();
+            for (int i = 0; i < rows.size(); i++) {
+                ImportRow row = rows.get(i);
+                if (row.getLoginName() == null || row.getLoginName().isEmpty()) {
+                    report.addError(row, "the login name is missing.");
+                } else if (row.getPassword() == null || row.getPassword().isEmpty()) {
+                    report.addError(row, "the password is missing.");
+                } else if (existing.get(i) != null) {
+                    report.addError(row, "the login name is already in use.");
+                } else if (!namesInBatch.add(row.getLoginName())) {
+                    report.addError(row, "the login name is used twice in the import.");
+                } else {
+                    LocalDateTime createdAt = LocalDateTime.now();
+                    String realName = row.getRealName() == null ? row.getLoginName() : row.getRealName();
+                    users.add(new User(row.getLoginName(), realName, trySHA(row.getPassword()), UUID.randomUUID(),
+                            ipAddress, createdAt, createdAt));
+                }
+            }
+            if (users.isEmpty()) {
+                return report;
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+            for (User user : users) {
+                UserIndex.add(pipeline, user);
+                pipeline.hset("user-" + user.getUuid().toString(), user.toMap());
+            }
+            pipeline.sync();
+
+            /**
+             * one Lamport clock value per created user, saved once for the batch
+             */
+            int firstClockValue = getLamportClockValue() + 1;
+            setLamportClockValue(firstClockValue + users.size() - 1);
+            List<UserDbOperation> operations = new ArrayList<UserDbOperation>();
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                int lamportClockValue = firstClockValue + i;
+                UserDbOperation operation = new UserDbOperation(UserDbOperation.CREATE, user.getUuid(),
+                        user.getLoginName(), null, user.getRealName(), user.getEncryptedPassword(), ipAddress,
+                        user.getCreatedAt(), user.getUpdatedAt(), lamportClockValue);
+                operation.setOrigin(serverAddr, lamportClockValue);
+                serverForServer.stampOperation(operation);
+                operations.add(operation);
+                report.addCreated();
+            }
+            operationLog.appendAll(operations);
+            replicationOutbox.addAll(operations);
+        } finally {
+            pool.close();
+        }
+        System.out.println("imported " + report.getCreated() + " users, " + report.getErrors().size() + " rows failed");
+        return report;
+    }
+
     /**
      * Stores the information of a user in a Redis database.
      * <p>
-     * This method constructs a HashMap containing the information of the provided
-     * user,
-     * such as login name, real name, encrypted password, UUID, IP address, creation
-     * timestamp,
-     * and update timestamp. It then stores this user information in Redis under a
-     * key derived
-     * from the user's UUID.
+     * This method stores the fields of the provided user (see {@link User#toMap()})
+     * in Redis under a key derived from the user's UUID, the same way every other
+     * place that saves a user does.
      * </p>
      *
      * @param user  the user object whose information is to be stored in Redis.
@@ -343,21 +562,10 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      */
     private static void setUser(User user, Jedis jedis) {
         /**
-         * saving user
+         * saving user map, and its login name in the login name index
          */
-        // Store & Retrieve a HashMap
-        Map<String, String> userMap = new HashMap<String, String>();
-        userMap.put("loginName", user.getLoginName());
-        userMap.put("realName", user.getRealName());
-        userMap.put("encryptedPassword", user.getEncryptedPassword());
-        userMap.put("uuid", String.valueOf(user.getUuid()));
-        userMap.put("ipAddress", user.getIpAddress());
-        userMap.put("createdAt", String.valueOf(user.getCreatedAt()));
-        userMap.put("updatedAt", user.getUpdatedAt().toString());
-        /**
-         * saving user map
-         */
-        jedis.hset("user-" + user.getUuid().toString(), userMap);
+        UserIndex.onSave(jedis, user);
+        jedis.hset("user-" + user.getUuid().toString(), user.toMap());
     }
 
     /**
@@ -386,16 +594,18 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @throws RemoteException if there is a problem accessing the remote object.
      */
     public String allUUIds() throws RemoteException {
-        HashSet<UUID> uuids = new HashSet<UUID>();
-        /**
-         * fetch all saved users from redis
-         */
-        HashSet<User> users = new HashSet<User>();
-        users = getUsersFromRedis();
-        for (User user : users) {
-            uuids.add(user.uuid);
-        }
-        return uuids.toString();
+        return serve(RequestClass.LISTING, () -> {
+            HashSet<UUID> uuids = new HashSet<UUID>();
+            /**
+             * fetch all saved users from redis
+             */
+            HashSet<User> users = new HashSet<User>();
+            users = getUsersFromRedis();
+            for (User user : users) {
+                uuids.add(user.uuid);
+            }
+            return uuids.toString();
+        });
     }
 
     /**
@@ -407,16 +617,18 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @throws RemoteException if there is a problem accessing the remote object.
      */
     public String allUsers() throws RemoteException {
-        HashSet<String> userNames = new HashSet<String>();
-        /**
-         * fetch all saved users from redis
-         */
-        HashSet<User> users = new HashSet<User>();
-        users = getUsersFromRedis();
-        for (User user : users) {
-            userNames.add(user.loginName + "(" + user.realName + ")");
-        }
-        return userNames.toString();
+        return serve(RequestClass.LISTING, () -> {
+            HashSet<String> userNames = new HashSet<String>();
+            /**
+             * fetch all saved users from redis
+             */
+            HashSet<User> users = new HashSet<User>();
+            users = getUsersFromRedis();
+            for (User user : users) {
+                userNames.add(user.loginName + "(" + user.realName + ")");
+            }
+            return userNames.toString();
+        });
     }
 
     /**
@@ -427,18 +639,20 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @throws RemoteException if there is a problem accessing the remote object.
      */
     public String all() throws RemoteException {
-        HashSet<String> userNames = new HashSet<String>();
-        /**
-         * fetch all saved users from redis
-         */
-        HashSet<User> users = new HashSet<User>();
-        users = getUsersFromRedis();
-        for (User user : users) {
-            userNames.add("user: " + user.loginName + "(" + user.realName + ")" + "\tUUID: " + user.uuid
-                    + "\tIp Address: " + user.ipAddress + "\tcreated at: " + user.createdAt + "\tmodified at: "
-                    + user.updatedAt + "\n");
-        }
-        return userNames.toString();
+        return serve(RequestClass.LISTING, () -> {
+            HashSet<String> userNames = new HashSet<String>();
+            /**
+             * fetch all saved users from redis
+             */
+            HashSet<User> users = new HashSet<User>();
+            users = getUsersFromRedis();
+            for (User user : users) {
+                userNames.add("user: " + user.loginName + "(" + user.realName + ")" + "\tUUID: " + user.uuid
+                        + "\tIp Address: " + user.ipAddress + "\tcreated at: " + user.createdAt + "\tmodified at: "
+                        + user.updatedAt + "\n");
+            }
+            return userNames.toString();
+        });
     }
 
     /**
@@ -453,6 +667,15 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * information of all
      * matching users found.
      * </p>
+     * <p>
+     * On the coordinator the read is only answered while it holds its read lease
+     * (see {@link IdServerForServer#confirmReadLease()}), which makes it
+     * linearizable without contacting other servers; without the lease, right
+     * after an election or while a majority cannot be reached, the read is
+     * refused with a {@link ServerOverloadedException}, which is safe to retry on
+     * this server after one lease duration or on another server right away.
+     * Lookups with a maximum staleness are still answered.
+     * </p>
      *
      * @param loginName the login name to search for.
      * @return a string representing user information based on the provided login
@@ -461,6 +684,19 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      */
     @Override
     public String lookup(String loginName) throws RemoteException {
+        return serve(RequestClass.POINT_READ, () -> {
+            checkReadLease();
+            return lookupLocal(loginName);
+        });
+    }
+
+    /**
+     * Looks a user up by login name in this server's database.
+     *
+     * @param loginName the login name to search for.
+     * @return the matching users.
+     */
+    private String lookupLocal(String loginName) {
         HashSet<String> matchingUsers = new HashSet<String>();
         /**
          * fetch all saved users from redis
@@ -487,6 +723,9 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * information of all
      * matching users found.
      * </p>
+     * <p>
+     * On the coordinator the read is only answered while it holds its read lease.
+     * </p>
      *
      * @param uuid the UUID to search for.
      * @return a string representing user information based on the provided UUID.
@@ -494,6 +733,19 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      */
     @Override
     public String reverseLookup(String uuid) throws RemoteException {
+        return serve(RequestClass.POINT_READ, () -> {
+            checkReadLease();
+            return reverseLookupLocal(uuid);
+        });
+    }
+
+    /**
+     * Looks a user up by UUID in this server's database.
+     *
+     * @param uuid the UUID to search for.
+     * @return the matching users.
+     */
+    private String reverseLookupLocal(String uuid) {
         HashSet<String> matchingUuid = new HashSet<String>();
         UUID targetUUID = UUID.fromString(uuid);
         /**
@@ -510,8 +762,218 @@ public class IdServerForClient implements IdServerInterfaceForClient {
     }
 
     /**
-     * Modifies the login name of a user in the database if the provided credentials match,
-     * and propagates the modification to other servers.
+     * Retrieves the users of many login names at once.
+     * <p>
+     * The uuids of all names are read from the login name index (see
+     * {@link UserIndex}) with one command, and the users with one pipeline, so the
+     * whole batch costs two redis round trips instead of a scan of every user per
+     * name. At most {@code p4.lookup.maxBatch} (10000) names are accepted per call.
+     * The batch is a point read whose admission cost grows with its size (see
+     * {@link AdmissionController}).
+     * </p>
+     *
+     * @param loginNames the login names to search for.
+     * @return one result per login name, in the same order.
+     * @throws RemoteException if the batch is too large or there is a problem
+     *                         accessing the remote object.
+     */
+    @Override
+    public ArrayList<LookupResult> lookupMany(List<String> loginNames) throws RemoteException {
+        return serveBatch(loginNames.size(), () -> {
+            checkBatch(loginNames);
+            ArrayList<LookupResult> results = new ArrayList<LookupResult>();
+            try (Jedis jedis = lookupPool.getResource()) {
+                List<String> uuids = UserIndex.uuidsOf(jedis, loginNames);
+                List<User> users = getUsersByUuid(jedis, uuids);
+                for (int i = 0; i < loginNames.size(); i++) {
+                    User user = users.get(i);
+                    /**
+                     * checking the name too, in case the index entry is left from a crash
+                     */
+                    if (user != null && user.loginName.equals(loginNames.get(i))) {
+                        results.add(new LookupResult(loginNames.get(i), user));
+                    } else {
+                        results.add(new LookupResult(loginNames.get(i)));
+                    }
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Retrieves the users of many UUIDs at once, with one redis pipeline.
+     * At most {@code p4.lookup.maxBatch} (10000) UUIDs are accepted per call.
+     *
+     * @param uuids the UUIDs to search for.
+     * @return one result per UUID, in the same order; a UUID that is not valid is
+     * not found.
+     * @throws RemoteException if the batch is too large or there is a problem
+     *                         accessing the remote object.
+     */
+    @Override
+    public ArrayList<LookupResult> reverseLookupMany(List<String> uuids) throws RemoteException {
+        return serveBatch(uuids.size(), () -> {
+            checkBatch(uuids);
+            ArrayList<LookupResult> results = new ArrayList<LookupResult>();
+            try (Jedis jedis = lookupPool.getResource()) {
+                List<User> users = getUsersByUuid(jedis, uuids);
+                for (int i = 0; i < uuids.size(); i++) {
+                    User user = users.get(i);
+                    results.add(user == null ? new LookupResult(uuids.get(i)) : new LookupResult(uuids.get(i), user));
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Checks a batch lookup before it is served: on the coordinator the read lease
+     * must be held, like for a single lookup, and the batch must not be too large.
+     *
+     * @param keys the login names or UUIDs of the batch.
+     * @throws RemoteException if the batch cannot be served.
+     */
+    private void checkBatch(List<String> keys) throws RemoteException {
+        if (keys.size() > LOOKUP_MAX_BATCH) {
+            throw new RemoteException("at most " + LOOKUP_MAX_BATCH + " keys can be looked up in one call");
+        }
+        checkReadLease();
+    }
+
+    /**
+     * Checks that a read needing linearizable guarantees can be answered here: on
+     * the coordinator only while it holds its read lease.
+     *
+     * @throws ServerOverloadedException if the coordinator does not hold its read
+     *                                   lease; the read is safe to retry after one
+     *                                   lease duration, or on another server.
+     */
+    private void checkReadLease() throws RemoteException {
+        if (serverForServer.isCoordinator() && !serverForServer.confirmReadLease()) {
+            throw new ServerOverloadedException("the coordinator could not confirm its lease, please try again.",
+                    LeaderLease.DURATION);
+        }
+    }
+
+    /**
+     * Reads users by UUID with one redis pipeline.
+     *
+     * @param jedis the Jedis object representing the connection to the Redis
+     *              database.
+     * @param uuids the UUIDs, null or invalid entries are allowed.
+     * @return the user of every UUID, in the same order, null where there is none.
+     */
+    private static List<User> getUsersByUuid(Jedis jedis, List<String> uuids) {
+        List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+        Pipeline pipeline = jedis.pipelined();
+        for (String uuid : uuids) {
+            responses.add(isUuid(uuid) ? pipeline.hgetAll("user-" + uuid.toLowerCase()) : null);
+        }
+        pipeline.sync();
+        List<User> users = new ArrayList<User>();
+        for (Response<Map<String, String>> response : responses) {
+            Map<String, String> userData = response == null ? null : response.get();
+            users.add(userData == null || userData.isEmpty() ? null : User.userFromMap(userData));
+        }
+        return users;
+    }
+
+    /**
+     * Checks if a string is a valid UUID.
+     *
+     * @param uuid the string.
+     * @return true if it is a UUID.
+     */
+    private static boolean isUuid(String uuid) {
+        if (uuid == null) {
+            return false;
+        }
+        try {
+            UUID.fromString(uuid);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves user information based on the provided login name, from this
+     * server's database if it is not older than the given staleness.
+     * <p>
+     * A server that is not the coordinator answers from its own database while its
+     * staleness (see {@link ReplicationLag}) is within the bound, and passes the
+     * read on to the coordinator otherwise. The request is admitted once (see
+     * {@link AdmissionController}); only the local read takes a thread of the
+     * point read executor, not the wait for the coordinator.
+     * </p>
+     * <p>
+     * The coordinator answers from its own database even without its read lease,
+     * as every server did before the lease existed: it applies every write, so
+     * its data is only older than the bound if another server has taken over
+     * without it noticing.
+     * </p>
+     *
+     * @param loginName          the login name to search for.
+     * @param maxStalenessMillis the maximum staleness of the answer in milliseconds.
+     * @return a string representing user information based on the provided login
+     * name.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String lookup(String loginName, long maxStalenessMillis) throws RemoteException {
+        return admitted(RequestClass.POINT_READ, () -> {
+            if (serverForServer.getStalenessMillis() <= maxStalenessMillis) {
+                return inBulkhead(RequestClass.POINT_READ, () -> lookupLocal(loginName));
+            }
+            return forwardToCoordinator(stub -> stub.lookup(loginName));
+        });
+    }
+
+    /**
+     * Retrieves user information based on the provided UUID, from this server's
+     * database if it is not older than the given staleness.
+     *
+     * @param uuid               the UUID to search for.
+     * @param maxStalenessMillis the maximum staleness of the answer in milliseconds.
+     * @return a string representing user information based on the provided UUID.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String reverseLookup(String uuid, long maxStalenessMillis) throws RemoteException {
+        return admitted(RequestClass.POINT_READ, () -> {
+            if (serverForServer.getStalenessMillis() <= maxStalenessMillis) {
+                return inBulkhead(RequestClass.POINT_READ, () -> reverseLookupLocal(uuid));
+            }
+            return forwardToCoordinator(stub -> stub.reverseLookup(uuid));
+        });
+    }
+
+    /**
+     * Passes a client request on to the coordinator's client side.
+     *
+     * @param call the call to make on the coordinator.
+     * @return the coordinator's response, or an error message if no coordinator is
+     * known or it cannot be reached.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    private String forwardToCoordinator(PeerStubCache.PeerCall<IdServerInterfaceForClient, String> call)
+            throws RemoteException {
+        String coordinatorAddr = serverForServer.getCoordinator();
+        if (coordinatorAddr == null) {
+            return "no coordinator is available, please try again.";
+        }
+        try {
+            return clientStubs.call(coordinatorAddr, call);
+        } catch (NotBoundException e) {
+            System.out.println("some error " + e);
+            return "no coordinator is available, please try again.";
+        }
+    }
+
+    /**
+     * Modifies the login name of a user in the database if the provided credentials match.
+     * If I am not the coordinator the request is passed on to the coordinator.
      *
      * @param loginName    The current login name of the user.
      * @param newLoginName The new login name to set for the user.
@@ -519,8 +981,29 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @return A message indicating the result of the modification attempt.
      * @throws RemoteException If an error occurs while communicating with the database or other servers.
      */
+    @Override
+    public String modify(String loginName, String newLoginName, String password) throws RemoteException {
+        return admitted(RequestClass.WRITE, () -> {
+            if (!isCoordinatorHere()) {
+                return writeForwarder.forward(new ForwardedWrite(UserDbOperation.MODIFY, loginName, newLoginName, null,
+                        password, null));
+            }
+            return inBulkhead(RequestClass.WRITE, () -> applyModify(loginName, newLoginName, password));
+        });
+    }
 
-    public synchronized String modify(String loginName, String newLoginName, String password) throws RemoteException {
+    /**
+     * Applies a modify request on the coordinator, and propagates the modification to other servers.
+     *
+     * @param loginName    The current login name of the user.
+     * @param newLoginName The new login name to set for the user.
+     * @param password     The password of the user.
+     * @return A message indicating the result of the modification attempt.
+     * @throws RemoteException If an error occurs while communicating with the database or other servers.
+     */
+
+    synchronized String applyModify(String loginName, String newLoginName, String password) throws RemoteException {
+        serverForServer.awaitWriteFence();
         synchronized (lock) {
 
             // Method implementation
@@ -560,39 +1043,15 @@ public class IdServerForClient implements IdServerInterfaceForClient {
                          * getting my lamport clock value
                          */
                         int lamportClockValue = getLamportClockValue();
-
                         /**
-                         * I will pass the same request to other servers as well.
+                         * logging the operation and saving it for the other servers
                          */
-
-                        System.out.println("updating other server one by one");
-                        for (String otherServerAddr : serverAddrs) {
-                            /**
-                             * I wont send it to my self.
-                             */
-                            if (!serverAddr.equals(otherServerAddr)) {
-                                System.out.println("updating " + otherServerAddr);
-                                try {
-                                    Registry registry = LocateRegistry.getRegistry(otherServerAddr,
-                                            SERVER_SIDE_REGISTRY_PORT);
-                                    IdServerInterfaceForServer userDbStub = (IdServerInterfaceForServer) registry
-                                            .lookup("IdServerForServer");
-
-                                    String response = userDbStub.modify(loginName, newLoginName, password, updatedAt,
-                                            lamportClockValue);
-
-                                    System.out.println("response: " + response);
-
-                                } catch (NotBoundException e) {
-                                    System.out.println("some error " + e);
-                                    continue;
-                                } catch (RemoteException e) {
-                                    System.out.println("some error " + e);
-                                    continue;
-                                }
-
-                            }
-                        }
+                        UserDbOperation operation = new UserDbOperation(UserDbOperation.MODIFY, user.getUuid(),
+                                loginName, newLoginName, null, null, null, null, updatedAt, lamportClockValue);
+                        operation.setOrigin(serverAddr, lamportClockValue);
+                        serverForServer.stampOperation(operation);
+                        operationLog.append(operation);
+                        replicationOutbox.add(operation);
 
                         return "login name updated.";
                     } else {
@@ -607,6 +1066,26 @@ public class IdServerForClient implements IdServerInterfaceForClient {
 
     /**
      * Deletes a user with the specified login name and password from the system.
+     * If I am not the coordinator the request is passed on to the coordinator.
+     *
+     * @param loginName the login name of the user to be deleted.
+     * @param password  the password of the user to be deleted.
+     * @return a response indicating the result of the delete operation.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String delete(String loginName, String password) throws RemoteException {
+        return admitted(RequestClass.WRITE, () -> {
+            if (!isCoordinatorHere()) {
+                return writeForwarder.forward(new ForwardedWrite(UserDbOperation.DELETE, loginName, null, null,
+                        password, null));
+            }
+            return inBulkhead(RequestClass.WRITE, () -> applyDelete(loginName, password));
+        });
+    }
+
+    /**
+     * Applies a delete request on the coordinator.
      * <p>
      * This method first synchronizes on a lock object to ensure thread safety.
      * It then attempts to delete the user from the system by comparing the provided
@@ -624,7 +1103,8 @@ public class IdServerForClient implements IdServerInterfaceForClient {
      * @return a response indicating the result of the delete operation.
      * @throws RemoteException if there is a problem accessing the remote object.
      */
-    public synchronized String delete(String loginName, String password) throws RemoteException {
+    synchronized String applyDelete(String loginName, String password) throws RemoteException {
+        serverForServer.awaitWriteFence();
         synchronized (lock) {
             String encryptedPassword = trySHA(password);
             /**
@@ -638,6 +1118,7 @@ public class IdServerForClient implements IdServerInterfaceForClient {
                         System.out.println("found user to delete " + user.getUuid().toString());
                         JedisPool pool = new JedisPool("localhost", 6379);
                         try (Jedis jedis = pool.getResource()) {
+                            UserIndex.onDelete(jedis, "user-" + user.getUuid().toString());
                             jedis.del("user-" + user.getUuid().toString());
                             /**
                              * incrementing my lamport clock.
@@ -652,38 +1133,16 @@ public class IdServerForClient implements IdServerInterfaceForClient {
                          * getting my lamport clock value
                          */
                         int lamportClockValue = getLamportClockValue();
-
                         /**
-                         * send other users the same message
+                         * logging the operation and saving it for the other servers
                          */
+                        UserDbOperation operation = new UserDbOperation(UserDbOperation.DELETE, user.getUuid(),
+                                loginName, null, null, null, null, null, null, lamportClockValue);
+                        operation.setOrigin(serverAddr, lamportClockValue);
+                        serverForServer.stampOperation(operation);
+                        operationLog.append(operation);
+                        replicationOutbox.add(operation);
 
-                        System.out.println("updating other server one by one");
-                        for (String otherServerAddr : serverAddrs) {
-                            /**
-                             * I wont send it to my self if I am the coordinator.
-                             */
-                            if (!serverAddr.equals(otherServerAddr)) {
-                                System.out.println("updating " + otherServerAddr);
-                                try {
-                                    Registry registry = LocateRegistry.getRegistry(otherServerAddr,
-                                            SERVER_SIDE_REGISTRY_PORT);
-                                    IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry
-                                            .lookup("IdServerForServer");
-
-                                    String response = stub.delete(loginName, password, lamportClockValue);
-
-                                    System.out.println("response: " + response);
-
-                                } catch (NotBoundException e) {
-                                    System.out.println("some error " + e);
-                                    continue;
-                                } catch (RemoteException e) {
-                                    System.out.println("some error " + e);
-                                    continue;
-                                }
-
-                            }
-                        }
 
                         /**
                          * sending response to original request
@@ -699,6 +1158,240 @@ public class IdServerForClient implements IdServerInterfaceForClient {
 
     }
 
+    /**
+     * Applies a write that another server passed on to me as the coordinator.
+     *
+     * @param write the write.
+     * @return the response to send back to the client.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    String applyForwardedWrite(ForwardedWrite write) throws RemoteException {
+        switch (write.getOperationType()) {
+            case UserDbOperation.CREATE:
+                return applyCreate(write.getLoginName(), write.getRealName(), write.getPassword(),
+                        write.getIpAddress());
+            case UserDbOperation.MODIFY:
+                return applyModify(write.getLoginName(), write.getNewLoginName(), write.getPassword());
+            case UserDbOperation.DELETE:
+                return applyDelete(write.getLoginName(), write.getPassword());
+            default:
+                return "unknown operation " + write.getOperationType();
+        }
+    }
+
+    /**
+     * Gets the outbox that delivers the operations applied on this server to the other servers.
+     *
+     * @return the replication outbox.
+     */
+    ReplicationOutbox getReplicationOutbox() {
+        return replicationOutbox;
+    }
+
+    /**
+     * A client request, run by {@link #serve(RequestClass, ClientRequest)}.
+     *
+     * @param <R> the result of the request
+     */
+    private interface ClientRequest<R> {
+        R run() throws RemoteException;
+    }
+
+    /**
+     * Runs a client request if admission control takes it (see
+     * {@link AdmissionController}), on the executor of its kind (see
+     * {@link Bulkheads}), counting it in the request statistics of the load
+     * report. The client's address is kept for the request, because RMI only
+     * knows it on the thread the call arrived on.
+     *
+     * @param requestClass the kind of the request.
+     * @param request      the request.
+     * @param <R>          the result of the request.
+     * @return the result.
+     * @throws ServerOverloadedException if the request is turned away.
+     * @throws RemoteException           if the request fails.
+     */
+    private <R> R serve(RequestClass requestClass, ClientRequest<R> request) throws RemoteException {
+        return admitted(requestClass, -1, () -> inBulkhead(requestClass, request));
+    }
+
+    /**
+     * Runs a batch lookup like {@link #serve}, as a point read that is admitted
+     * with a cost that grows with the number of keys (see
+     * {@link AdmissionController#admitBatch}).
+     *
+     * @param keys    the number of keys in the batch.
+     * @param request the request.
+     * @param <R>     the result of the request.
+     * @return the result.
+     * @throws ServerOverloadedException if the request is turned away.
+     * @throws RemoteException           if the request fails.
+     */
+    private <R> R serveBatch(int keys, ClientRequest<R> request) throws RemoteException {
+        return admitted(RequestClass.POINT_READ, keys, () -> inBulkhead(RequestClass.POINT_READ, request));
+    }
+
+    /**
+     * Runs a client request on the calling thread if admission control takes it,
+     * counting it in the request statistics of the load report. Used for requests
+     * that may only wait on another server, which must not hold a thread of an
+     * executor while they wait; the parts that work on this server's database
+     * run with {@link #inBulkhead}.
+     *
+     * @param requestClass the kind of the request.
+     * @param request      the request.
+     * @param <R>          the result of the request.
+     * @return the result.
+     * @throws ServerOverloadedException if the request is turned away.
+     * @throws RemoteException           if the request fails.
+     */
+    private <R> R admitted(RequestClass requestClass, ClientRequest<R> request) throws RemoteException {
+        return admitted(requestClass, -1, request);
+    }
+
+    /**
+     * Runs a client request on the calling thread if admission control takes it,
+     * like {@link #admitted(RequestClass, ClientRequest)}.
+     *
+     * @param requestClass the kind of the request.
+     * @param batchKeys    the number of keys of a batch lookup, -1 for any other
+     *                     request.
+     * @param request      the request.
+     * @param <R>          the result of the request.
+     * @return the result.
+     * @throws ServerOverloadedException if the request is turned away.
+     * @throws RemoteException           if the request fails.
+     */
+    private <R> R admitted(RequestClass requestClass, int batchKeys, ClientRequest<R> request)
+            throws RemoteException {
+        String clientHost;
+        try {
+            clientHost = RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            /**
+             * called from inside this server
+             */
+            clientHost = null;
+        }
+        if (batchKeys >= 0) {
+            admissionController.admitBatch(clientHost, batchKeys);
+        } else {
+            admissionController.admit(clientHost, requestClass);
+        }
+        String previousHost = CLIENT_HOST.get();
+        if (clientHost != null) {
+            CLIENT_HOST.set(clientHost);
+        }
+        long start = requestStats.begin();
+        try {
+            return request.run();
+        } finally {
+            requestStats.end(start);
+            admissionController.release(requestClass);
+            restoreClientHost(previousHost);
+        }
+    }
+
+    /**
+     * Runs part of an admitted request on the executor of its kind, keeping the
+     * client's address for it.
+     *
+     * @param requestClass the kind of the request.
+     * @param request      the part of the request.
+     * @param <R>          the result of the request.
+     * @return the result.
+     * @throws ServerOverloadedException if the executor's queue is full.
+     * @throws RemoteException           if the request fails.
+     */
+    private <R> R inBulkhead(RequestClass requestClass, ClientRequest<R> request) throws RemoteException {
+        String host = CLIENT_HOST.get();
+        return serverForServer.getBulkheads().run(requestClass, () -> {
+            String previousHost = CLIENT_HOST.get();
+            CLIENT_HOST.set(host);
+            try {
+                return request.run();
+            } finally {
+                restoreClientHost(previousHost);
+            }
+        });
+    }
+
+    /**
+     * Puts back the client address a thread had before a request ran on it.
+     *
+     * @param previousHost the address, null if there was none.
+     */
+    private static void restoreClientHost(String previousHost) {
+        if (previousHost == null) {
+            CLIENT_HOST.remove();
+        } else {
+            CLIENT_HOST.set(previousHost);
+        }
+    }
+
+    /**
+     * Gets the address of the client whose request is running on this thread.
+     *
+     * @return the client's address.
+     * @throws ServerNotActiveException if no client request is running on this
+     *                                  thread.
+     */
+    private static String getClientHost() throws ServerNotActiveException {
+        String host = CLIENT_HOST.get();
+        if (host == null) {
+            throw new ServerNotActiveException("no client request is running on this thread");
+        }
+        return host;
+    }
+
+    /**
+     * Gets the number of client requests turned away by admission control.
+     *
+     * @return the counts by kind of request, as a string.
+     */
+    public String getRejectedReport() {
+        return admissionController.getRejectedReport();
+    }
+
+    /**
+     * Reports how busy this server is, so clients can send their reads to the
+     * server with the least load.
+     *
+     * @return the load report.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public LoadReport getLoadReport() throws RemoteException {
+        return new LoadReport(serverAddr, requestStats.getInFlight(), requestStats.getP99Millis(),
+                writeForwarder.getQueueDepth(), replicationOutbox.getTotalDepth(),
+                serverForServer.getStalenessMillis(), serverForServer.getLagTicks(), serverForServer.getWriteLagMillis(),
+                isCoordinatorHere());
+    }
+
+    /**
+     * Reports this server's runtime metrics for operators, the same ones that are
+     * printed on shutdown. Like the load report it is not admitted, so it can be
+     * read from an overloaded server.
+     *
+     * @return the report as text.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String getServerReport() throws RemoteException {
+        return "Peer lookup and connect latency:\n" + peerStubs.getLatencyReport()
+                + "Client requests turned away: " + getRejectedReport() + "\n"
+                + "Request executors:\n" + serverForServer.getBulkheads().getReport();
+    }
+
+    /**
+     * Checks if I am the coordinator, which is the only server that applies writes.
+     *
+     * @return true if I am the coordinator.
+     */
+    private boolean isCoordinatorHere() {
+        return serverAddr.equals(serverForServer.getCoordinator());
+    }
+
     /**
      * Sets the value of the Lamport clock in a Redis database.
      * <p>
@@ -754,6 +1447,75 @@ public class IdServerForClient implements IdServerInterfaceForClient {
     }
 
 
+    /**
+     * Retrieves the next batch of directory changes after a consumer's committed
+     * offset (see {@link ChangeFeed}).
+     *
+     * @param consumerId the consumer's name.
+     * @param maxBatch   the largest number of changes to return.
+     * @param waitMillis how long to wait for a change in milliseconds.
+     * @return the batch of changes.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public ChangeBatch getChanges(String consumerId, int maxBatch, long waitMillis) throws RemoteException {
+        return serve(RequestClass.CHANGE_FEED, () -> {
+            try {
+                return changeFeed.poll(consumerId, maxBatch, waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ChangeBatch(new ArrayList<ChangeEvent>(), changeFeed.getOffset(consumerId), false);
+            }
+        });
+    }
+
+    /**
+     * Commits a consumer's offset in the change feed.
+     *
+     * @param consumerId the consumer's name.
+     * @param offset     the offset returned with the last processed batch.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public void commitChanges(String consumerId, long offset) throws RemoteException {
+        serve(RequestClass.CHANGE_FEED, () -> {
+            changeFeed.commit(consumerId, offset);
+            return null;
+        });
+    }
+
+    /**
+     * Retrieves the directory changes whose hybrid logical clock time is in a
+     * time range, without password hashes.
+     *
+     * @param fromMillis the start of the range in milliseconds, inclusive.
+     * @param toMillis   the end of the range in milliseconds, inclusive.
+     * @return the changes in the range, in time order.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public ArrayList<ChangeEvent> getChangesBetween(long fromMillis, long toMillis) throws RemoteException {
+        return serve(RequestClass.CHANGE_FEED, () -> {
+            ArrayList<ChangeEvent> changes = new ArrayList<ChangeEvent>();
+            for (UserDbOperation operation : operationLog.between(fromMillis, toMillis)) {
+                changes.add(new ChangeEvent(operation));
+            }
+            return changes;
+        });
+    }
+
+    /**
+     * Retrieves the address of the current coordinator, so clients can send writes
+     * to it directly.
+     *
+     * @return the coordinator's address, or {@code null} if it is not known yet.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public String getCoordinatorAddr() throws RemoteException {
+        return serve(RequestClass.POINT_READ, serverForServer::getCoordinator);
+    }
+
     /**
      * Sends a greeting message to the server and returns a response. A simple testing function
      *
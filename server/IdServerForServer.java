@@ -3,17 +3,28 @@ package p4.server;
 import com.google.gson.Gson;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
 
+import java.io.IOException;
 import java.rmi.ConnectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.UnknownHostException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The server implementation for server-side operations in the ID server application.
@@ -29,15 +40,109 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
     private static final long serialVersionUID = 8510538827054962873L;
     private static int registryPort;
     private String LAMPORT_KEY = "lamport_key";
+    /**
+     * the coordinator's Lamport clock value of the newest coordinator operation I have applied; my own clock
+     * runs ahead of it, so catch-up asks the coordinator's log for the operations after this value
+     */
+    private static final String COORDINATOR_CLOCK_KEY = "coordinator_clock";
+    /**
+     * keys to save how far a full database copy has gone, so it can be resumed
+     */
+    private static final String SNAPSHOT_CURSOR_KEY = "snapshot_cursor";
+    private static final String SNAPSHOT_SOURCE_KEY = "snapshot_source";
+    private static final String SNAPSHOT_CLOCK_KEY = "snapshot_clock";
+    /**
+     * number of users per snapshot page and the maximum users per second to copy
+     */
+    private static final int SNAPSHOT_PAGE_SIZE = Integer.getInteger("p4.snapshot.pageSize", 500);
+    private static final int SNAPSHOT_RATE = Integer.getInteger("p4.snapshot.rate", 5000);
     /**
      * list to hold all servers informations
      */
     private static List<String> serverAddrs = new ArrayList<>();
     private HashMap<String, Integer> addressMap = new HashMap<>();
+    /**
+     * cached stubs of the other servers
+     */
+    private static PeerStubCache<IdServerInterfaceForServer> peerStubs;
     // Define a lock object
     private final Object lock = new Object();
-    // Flag to indicate whether a modification is in progress
-    private boolean primaryIsWorking = false;
+    /**
+     * log of every operation applied on this server
+     */
+    private final OperationLog operationLog = new OperationLog();
+    /**
+     * hybrid logical clock stamped on every operation, and the newest stamp I have applied
+     */
+    private final HybridLogicalClock hybridClock = new HybridLogicalClock(operationLog.getClockSeed());
+    private volatile long appliedWatermark = 0;
+    /**
+     * checkpoints of the database on disk, written periodically by the coordinator
+     */
+    private final CheckpointManager checkpointManager = new CheckpointManager(
+            System.getProperty("p4.checkpoint.dir", "p4/checkpoints"));
+    private static final int CHECKPOINT_INTERVAL = Integer.getInteger("p4.checkpoint.interval", 60);
+    /**
+     * executors that keep the kinds of work apart, with capacity reserved for control calls
+     */
+    private final Bulkheads bulkheads = new Bulkheads();
+    /**
+     * checks if the other servers are alive
+     */
+    private FailureDetector failureDetector;
+    /**
+     * the read lease the other servers grant me while I am the coordinator
+     */
+    private LeaderLease leaderLease;
+    /**
+     * the lease I have granted: until promisedUntil (System.nanoTime()) I do not accept another coordinator than
+     * promisedTo, and I do not elect myself. A coordinator announced meanwhile is kept in pendingCoordinator, and
+     * no lease is granted while it waits, so the promise ends.
+     */
+    private final Object promiseLock = new Object();
+    private String promisedTo;
+    private long promisedUntil;
+    private String pendingCoordinator;
+    /**
+     * a new coordinator applies no write before this System.nanoTime(), so that every lease granted to the
+     * previous coordinator has ended
+     */
+    private volatile long writesAllowedAt = System.nanoTime();
+    /**
+     * delivers a coordinator announcement once the lease I promised has ended
+     */
+    private final ScheduledExecutorService leaseTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lease-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * how far I am behind the coordinator while I am not the coordinator
+     */
+    private final ReplicationLag replicationLag = new ReplicationLag();
+    /**
+     * the replicated operations I have applied recently, so a redelivered operation is not applied twice
+     */
+    private final DedupWindow dedupWindow = new DedupWindow();
+    /**
+     * the client side of this server, which applies the writes other servers pass on to me
+     */
+    private IdServerForClient serverForClient;
+    /**
+     * merkle tree of my database, refreshed for the written ranges before it is used and built again from
+     * every user only when it is older than p4.merkle.rebuildInterval milliseconds
+     */
+    private MerkleTree merkleTree;
+    private static final long MERKLE_TREE_MAX_AGE = Long.getLong("p4.merkle.rebuildInterval", 3600000);
+    private static final int ANTI_ENTROPY_INTERVAL = Integer.getInteger("p4.antientropy.interval", 30);
+    /**
+     * runs background tasks such as checkpoints and anti-entropy
+     */
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "background-task");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * variable to set servers power
@@ -52,7 +157,7 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
     /**
      * variable to check if the server is the coordinator
      */
-    private boolean isCoordinator = false;
+    private volatile boolean isCoordinator = false;
 
     /**
      * Checks if the current server instance is the coordinator.
@@ -67,12 +172,45 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
     /**
      * variables for election purposes
      */
-    boolean foundgreater = false;
-    static boolean electionInProgress = false;
+    static volatile boolean electionInProgress = false;
+    private final AtomicBoolean electionRunning = new AtomicBoolean(false);
+    /**
+     * counts the coordinator announcements received, so an election can wait for a new one
+     */
+    private long announcements = 0;
+    private final Object electionMonitor = new Object();
+    /**
+     * how long to wait for an OK from a higher server, and for its announcement after an OK (milliseconds)
+     */
+    private static final long ELECTION_TIMEOUT = Long.getLong("p4.election.timeout", 300);
+    private static final long ANNOUNCEMENT_TIMEOUT = Long.getLong("p4.election.announcementTimeout", 1000);
+    /**
+     * runs the elections of this server, one at a time
+     */
+    private final ExecutorService electionExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "election");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * sends the election messages to the other servers in parallel
+     */
+    private final ExecutorService electionCalls = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "election-call");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * election duration metrics: when the running election started, and the finished elections
+     */
+    private volatile long electionStartedAt = 0;
+    private long electionCount = 0;
+    private long lastElectionMillis = 0;
+    private long totalElectionMillis = 0;
     /**
      * variable to get the coordinators id
      */
-    private static String coordinator;
+    private static volatile String coordinator;
 
     /**
      * variable to save server's own address
@@ -85,15 +223,20 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      * @throws RemoteException
      */
     public IdServerForServer(String serverAddr, int registryPort, List<String> serverAddrs,
-                             HashMap<String, Integer> addressMap)
+                             HashMap<String, Integer> addressMap,
+                             PeerStubCache<IdServerInterfaceForServer> peerStubs)
             throws RemoteException, NotBoundException {
-        super();
+        /**
+         * the other servers call me with connect and read timeouts (see PeerSocketFactory)
+         */
+        super(0, new PeerSocketFactory(), null);
         /*
          * setting server uuid and server level
          */
 
         IdServerForServer.serverAddr = serverAddr;
         IdServerForServer.registryPort = registryPort;
+        IdServerForServer.peerStubs = peerStubs;
         this.addressMap = addressMap;
         /**
          * setting a random power to server
@@ -114,10 +257,25 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
          * setting all server info
          */
         IdServerForServer.serverAddrs = serverAddrs;
+        leaderLease = new LeaderLease(serverAddrs.size());
 
         /**
-         * I will get the database from
+         * I will load my last checkpoint first, if redis is older than it
          */
+        long checkpointClock = checkpointManager.restore();
+        if (checkpointClock >= 0) {
+            System.out.println("restored checkpoint at lamport clock " + checkpointClock);
+            try (Jedis jedis = pool.getResource()) {
+                recordCoordinatorClock(checkpointClock, jedis);
+            }
+        }
+
+        /**
+         * I will get the database (the operations newer than my clock) from the coordinator
+         */
+        try (Jedis jedis = pool.getResource()) {
+            dedupWindow.load(jedis);
+        }
         updateRedis();
 
         try (Jedis jedis = pool.getResource()) {
@@ -132,12 +290,14 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      * Updates the local Redis database with data from the current coordinator.
      * <p>
      * This method retrieves the address of the current coordinator and attempts to
-     * fetch data from it. If the local Lamport clock value is lower than the
-     * coordinator's,
-     * it fetches the full user database from the coordinator, deletes existing user
-     * data
-     * in the local Redis database, and saves the data obtained from the
-     * coordinator.
+     * fetch data from it. If the coordinator's Lamport clock value is higher than
+     * the coordinator clock value of the newest coordinator operation applied here
+     * (the local clock itself runs ahead of it, because every applied operation moves
+     * it past the operation's clock), it asks the coordinator for the operations
+     * logged after that value and replays only those. If the coordinator's operation
+     * log has already been truncated past that value, or an earlier copy was
+     * interrupted, it falls back to copying the full user database from the
+     * coordinator page by page (see {@link #copySnapshot}).
      * Finally, it increments the local Lamport clock value to ensure
      * synchronization.
      * </p>
@@ -155,21 +315,22 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
 
         if (currentCoordinatorAddr != null) {
 
-            Registry registry = LocateRegistry.getRegistry(currentCoordinatorAddr, registryPort);
-            IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry.lookup("IdServerForServer");
+            IdServerInterfaceForServer stub = peerStubs.get(currentCoordinatorAddr);
             /**
              * getting coordinators lamport clock value
              */
             int CoordinatorLamportClockValue = stub.getLamportClockValue();
             int myLamportClockValue = getLamportClockValue();
-            if (myLamportClockValue <= CoordinatorLamportClockValue) {
-                /**
-                 * getting all users from the coordinator
-                 */
-                HashSet<User> usersInCoordinator = stub.getFullDataBase();
+            /**
+             * my own clock is ahead of the coordinator operations I have applied, so I compare the coordinator's
+             * clock with the last coordinator clock I have applied
+             */
+            long appliedCoordinatorClock = getAppliedCoordinatorClock();
+            if (appliedCoordinatorClock < CoordinatorLamportClockValue) {
                 /**
-                 * now I will save the users
+                 * getting only the operations I have missed
                  */
+                ArrayList<UserDbOperation> missedOperations = stub.getOperationsSince(appliedCoordinatorClock);
 
                 /*
                  * connecting to jedispool
@@ -177,25 +338,14 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
                 JedisPool pool = new JedisPool("localhost", 6379);
                 try (Jedis jedis = pool.getResource()) {
                     /**
-                     * now I will delete every user I have first
-                     */
-                    // Example: Get all user keys
-                    Set<String> userKeys = jedis.keys("user:*");
-
-                    // Delete all user keys
-                    for (String userKey : userKeys) {
-                        jedis.del(userKey);
-                    }
-                    /**
-                     * Now I will save every user that I have from the coordinator
+                     * an interrupted database copy has to be finished before replaying
                      */
-                    for (User user : usersInCoordinator) {
-                        /*
-                         * creating and adding the user on redis
-                         */
-
-                        setUser(user, jedis);
-
+                    if (missedOperations != null && !jedis.exists(SNAPSHOT_CURSOR_KEY)) {
+                        System.out.println("replaying " + missedOperations.size() + " missed operations");
+                        replayCoordinatorOperations(missedOperations, jedis);
+                    } else {
+                        System.out.println("copying the full database page by page");
+                        copySnapshot(currentCoordinatorAddr, stub, jedis);
                     }
 
                 }
@@ -210,6 +360,293 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
         }
     }
 
+    /**
+     * Replays operations read from the coordinator's operation log, and records
+     * the coordinator's clock value of every one of them as applied.
+     *
+     * @param operations the operations, in the coordinator's clock order.
+     * @param jedis      the Jedis object representing the connection to the Redis
+     *                   database.
+     */
+    private void replayCoordinatorOperations(List<UserDbOperation> operations, Jedis jedis) {
+        for (UserDbOperation operation : operations) {
+            if (applyOnce(operation, jedis)) {
+                operationLog.append(operation);
+            }
+            recordCoordinatorClock(operation.getOperationTimestamp(), jedis);
+        }
+    }
+
+    /**
+     * Gets the coordinator's Lamport clock value of the newest coordinator
+     * operation I have applied.
+     *
+     * @return the clock value, 0 if none has been applied.
+     */
+    private long getAppliedCoordinatorClock() {
+        JedisPool pool = new JedisPool("localhost", 6379);
+        try (Jedis jedis = pool.getResource()) {
+            String value = jedis.get(COORDINATOR_CLOCK_KEY);
+            return value == null || value.isEmpty() ? 0 : Long.parseLong(value);
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Moves the applied coordinator clock forward.
+     *
+     * @param clock the coordinator's Lamport clock value of an applied operation.
+     * @param jedis the Jedis object representing the connection to the Redis
+     *              database.
+     */
+    private static void recordCoordinatorClock(long clock, Jedis jedis) {
+        String value = jedis.get(COORDINATOR_CLOCK_KEY);
+        if (value == null || value.isEmpty() || Long.parseLong(value) < clock) {
+            jedis.set(COORDINATOR_CLOCK_KEY, Long.toString(clock));
+        }
+    }
+
+    /**
+     * Copies the full database from the coordinator page by page.
+     * <p>
+     * Every page is saved in redis as soon as it arrives, together with the cursor
+     * for the next page, so an interrupted copy from the same coordinator resumes
+     * where it stopped. The copy is throttled to {@code p4.snapshot.rate} users per
+     * second so that it does not take the whole link from live traffic. Writes that
+     * happen on the coordinator while the copy is running are replayed from its
+     * operation log at the end.
+     * </p>
+     *
+     * @param coordinatorAddr the address of the coordinator.
+     * @param stub            the coordinator's stub.
+     * @param jedis           the Jedis object representing the connection to the Redis
+     *                        database.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    private void copySnapshot(String coordinatorAddr, IdServerInterfaceForServer stub, Jedis jedis)
+            throws RemoteException {
+        String cursor = jedis.get(SNAPSHOT_CURSOR_KEY);
+        if (cursor == null || !coordinatorAddr.equals(jedis.get(SNAPSHOT_SOURCE_KEY))) {
+            /**
+             * starting a new copy, so I will delete every user I have first
+             */
+            for (String userKey : jedis.keys("user-*")) {
+                jedis.del(userKey);
+            }
+            UserIndex.clear(jedis);
+            jedis.del(COORDINATOR_CLOCK_KEY);
+            cursor = ScanParams.SCAN_POINTER_START;
+            jedis.set(SNAPSHOT_SOURCE_KEY, coordinatorAddr);
+            jedis.set(SNAPSHOT_CLOCK_KEY, Integer.toString(stub.getLamportClockValue()));
+            jedis.set(SNAPSHOT_CURSOR_KEY, cursor);
+        } else {
+            System.out.println("resuming the database copy from cursor " + cursor);
+        }
+
+        int copied = 0;
+        SnapshotPage page;
+        do {
+            long pageStart = System.currentTimeMillis();
+            page = stub.getSnapshotPage(cursor, SNAPSHOT_PAGE_SIZE);
+            for (User user : page.getUsers()) {
+                setUser(user, jedis);
+            }
+            cursor = page.getNextCursor();
+            jedis.set(SNAPSHOT_CURSOR_KEY, cursor);
+            copied += page.getUsers().size();
+
+            /**
+             * waiting so that the copy does not go faster than the configured rate
+             */
+            long minimumPageTime = page.getUsers().size() * 1000L / SNAPSHOT_RATE;
+            long sleepTime = minimumPageTime - (System.currentTimeMillis() - pageStart);
+            if (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } while (!page.isLastPage());
+        System.out.println("copied " + copied + " users from " + coordinatorAddr);
+
+        /**
+         * replaying what changed on the coordinator during the copy
+         */
+        long snapshotClock = Long.parseLong(jedis.get(SNAPSHOT_CLOCK_KEY));
+        recordCoordinatorClock(snapshotClock, jedis);
+        ArrayList<UserDbOperation> missedOperations = stub.getOperationsSince(snapshotClock);
+        if (missedOperations != null) {
+            replayCoordinatorOperations(missedOperations, jedis);
+        }
+        jedis.del(SNAPSHOT_CURSOR_KEY, SNAPSHOT_SOURCE_KEY, SNAPSHOT_CLOCK_KEY);
+    }
+
+    /**
+     * Finds and repairs differences between my database and the coordinator's.
+     * <p>
+     * Both sides keep a merkle tree over uuid ranges of their databases. Starting
+     * from the root, I ask the coordinator only for the children of the nodes whose
+     * hashes differ from mine, so I find the differing ranges with a few small
+     * requests. For every differing range I fetch the coordinator's users in that
+     * range, save them, and delete my users that the coordinator does not have.
+     * Writes that were rejected or lost on this server are repaired this way. If a
+     * replicated write reaches me while the round is running, the repair is skipped
+     * and left to the next round, so that it cannot undo the newer write.
+     * </p>
+     *
+     * @throws RemoteException   if there is a problem accessing the remote object.
+     * @throws NotBoundException if there is an issue accessing the remote object's
+     *                           registry.
+     */
+    private void antiEntropy() throws RemoteException, NotBoundException {
+        if (coordinator == null || coordinator.equals(serverAddr)) {
+            return;
+        }
+        IdServerInterfaceForServer stub = peerStubs.get(coordinator);
+
+        int clockBefore = getLamportClockValue();
+        MerkleTree myTree = getMerkleTree();
+
+        /**
+         * walking down the tree level by level, only into the differing nodes
+         */
+        List<Integer> differingNodes = compareMerkleNodes(stub, myTree, new int[]{1});
+        while (!differingNodes.isEmpty() && differingNodes.get(0) < MerkleTree.LEAVES) {
+            int[] children = new int[differingNodes.size() * 2];
+            for (int i = 0; i < differingNodes.size(); i++) {
+                children[2 * i] = 2 * differingNodes.get(i);
+                children[2 * i + 1] = 2 * differingNodes.get(i) + 1;
+            }
+            differingNodes = compareMerkleNodes(stub, myTree, children);
+        }
+        if (differingNodes.isEmpty()) {
+            return;
+        }
+        System.out.println("anti-entropy found " + differingNodes.size() + " differing uuid ranges");
+
+        JedisPool pool = new JedisPool("localhost", 6379);
+        try (Jedis jedis = pool.getResource()) {
+            for (int node : differingNodes) {
+                int range = node - MerkleTree.LEAVES;
+                ArrayList<User> coordinatorUsers = stub.getUsersInRange(range);
+                synchronized (lock) {
+                    if (getLamportClockValue() != clockBefore) {
+                        System.out.println("new writes arrived, anti-entropy repair left to the next round");
+                        return;
+                    }
+                    Set<String> coordinatorKeys = new HashSet<String>();
+                    for (User user : coordinatorUsers) {
+                        coordinatorKeys.add("user-" + user.getUuid().toString());
+                        setUser(user, jedis);
+                    }
+                    for (String uuid : UserIndex.uuidsInRange(jedis, range)) {
+                        String userKey = "user-" + uuid;
+                        if (!coordinatorKeys.contains(userKey)) {
+                            UserIndex.onDelete(jedis, userKey);
+                            jedis.del(userKey);
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Compares some nodes of my merkle tree with the coordinator's.
+     *
+     * @param stub   the coordinator's stub.
+     * @param myTree my merkle tree.
+     * @param nodes  the node numbers to compare.
+     * @return the node numbers whose hashes differ.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    private List<Integer> compareMerkleNodes(IdServerInterfaceForServer stub, MerkleTree myTree, int[] nodes)
+            throws RemoteException {
+        ArrayList<byte[]> coordinatorHashes = stub.getMerkleNodes(nodes);
+        List<Integer> differingNodes = new ArrayList<Integer>();
+        for (int i = 0; i < nodes.length; i++) {
+            if (!Arrays.equals(coordinatorHashes.get(i), myTree.getNode(nodes[i]))) {
+                differingNodes.add(nodes[i]);
+            }
+        }
+        return differingNodes;
+    }
+
+    /**
+     * Gets the merkle tree of my database, refreshing the ranges written since it
+     * was last used, or building a new one if the tree is too old.
+     *
+     * @return the merkle tree.
+     */
+    private synchronized MerkleTree getMerkleTree() {
+        JedisPool pool = new JedisPool("localhost", 6379);
+        try (Jedis jedis = pool.getResource()) {
+            if (merkleTree == null || System.currentTimeMillis() - merkleTree.getBuiltAt() > MERKLE_TREE_MAX_AGE) {
+                merkleTree = new MerkleTree(jedis);
+            } else {
+                merkleTree.refresh(jedis);
+            }
+        }
+        pool.close();
+        return merkleTree;
+    }
+
+    /**
+     * Applies a logged operation to the local redis database.
+     * <p>
+     * Operations are applied by uuid, but applying an old operation again can undo
+     * a newer one (a create after a delete brings the user back), so replicated
+     * operations go through {@link #applyOnce}.
+     * </p>
+     *
+     * @param operation the operation to apply.
+     * @param jedis     the Jedis object representing the connection to the Redis
+     *                  database.
+     */
+    private static void applyOperation(UserDbOperation operation, Jedis jedis) {
+        String userKey = "user-" + operation.getUuid().toString();
+        if (UserDbOperation.CREATE.equals(operation.getOperationType())) {
+            User user = new User(operation.getLoginName(), operation.getRealName(), operation.getPassword(),
+                    operation.getUuid(), operation.getIpAddress(), operation.getCreatedAt(),
+                    operation.getUpdatedAt());
+            setUser(user, jedis);
+        } else if (UserDbOperation.MODIFY.equals(operation.getOperationType())) {
+            if (jedis.exists(userKey)) {
+                UserIndex.onSave(jedis, operation.getUuid().toString(), operation.getNewLoginName());
+                jedis.hset(userKey, "loginName", operation.getNewLoginName());
+                jedis.hset(userKey, "updatedAt", operation.getUpdatedAt().toString());
+            }
+        } else if (UserDbOperation.DELETE.equals(operation.getOperationType())) {
+            UserIndex.onDelete(jedis, userKey);
+            jedis.del(userKey);
+        }
+    }
+
+    /**
+     * Applies a replicated operation unless it has already been applied, and records
+     * it in the dedup window, which is saved in redis with the users.
+     *
+     * @param operation the operation to apply.
+     * @param jedis     the Jedis object representing the connection to the Redis
+     *                  database.
+     * @return true if the operation was applied, false if it was a duplicate.
+     */
+    private boolean applyOnce(UserDbOperation operation, Jedis jedis) {
+        if (dedupWindow.contains(operation)) {
+            return false;
+        }
+        applyOperation(operation, jedis);
+        dedupWindow.add(operation, jedis);
+        hybridClock.update(operation.getHlc());
+        recordApplied(operation.getHlc());
+        return true;
+    }
+
     /**
      * Searches for the address of the current coordinator server.
      * <p>
@@ -233,9 +670,7 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
         for (String anyServerAddr : serverAddrs) {
             if (!anyServerAddr.equals(serverAddr)) {
                 try {
-                    Registry registry = LocateRegistry.getRegistry(anyServerAddr, registryPort);
-                    IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry.lookup("IdServerForServer");
-                    boolean response = stub.isCoordinator();
+                    boolean response = peerStubs.call(anyServerAddr, stub -> stub.isCoordinator());
                     //System.out.println("is coordinator: " + response);
                     if (response) {
                         currentCoordinatorAddr = anyServerAddr;
@@ -257,7 +692,8 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
     }
 
     /**
-     * Binds the server to the provided name in the RMI registry, initiates an election, and starts a heartbeat.
+     * Binds the server to the provided name in the RMI registry, initiates an election, starts a heartbeat and
+     * schedules the coordinator's checkpoints and the anti-entropy task.
      *
      * @param name The name to bind the server to in the RMI registry.
      * @throws RemoteException If an error occurs while communicating with the RMI registry or during the election process.
@@ -267,32 +703,53 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
          * connecting to jedispool
          */
 
-        try {
-            //System.out.println("server id:" + serverAddr);
-            //System.out.println("server name: " + name);
+        //System.out.println("server id:" + serverAddr);
+        //System.out.println("server name: " + name);
 
-            Registry registry = LocateRegistry.createRegistry(registryPort);
-            //IdServerForServer obj = new IdServerForServer(serverAddr, registryPort, serverAddrs, addressMap);
-            /*
-             * binding the server name
-             */
-            registry.rebind(name, this);
-            System.out.println(name + ": " + name + " bound in registry on port " + registryPort + " on this host");
+        Registry registry = LocateRegistry.createRegistry(registryPort);
+        //IdServerForServer obj = new IdServerForServer(serverAddr, registryPort, serverAddrs, addressMap);
+        /*
+         * binding the server name
+         */
+        registry.rebind(name, this);
+        System.out.println(name + ": " + name + " bound in registry on port " + registryPort + " on this host");
 
-            /**
-             * After binding is done I will start the election
-             */
-            registry = LocateRegistry.getRegistry("localhost", registryPort);
-            IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry.lookup("IdServerForServer");
-            stub.startElection(serverAddr); // bully election call
-        } catch (NotBoundException e) {
-            throw new RuntimeException(e);
-        }
+        /**
+         * After binding is done I will start the election
+         */
+        runElection(); // bully election call
         /**
          * running the heartbeat
          */
-        System.out.println("Before starting the repeat, the coordinator is " + coordinator);
-        repeat();
+        System.out.println("Before starting the failure detector, the coordinator is " + coordinator);
+        startFailureDetector();
+
+        /**
+         * writing checkpoints while I am the coordinator
+         */
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (isCoordinator) {
+                try {
+                    checkpointManager.writeCheckpoint();
+                } catch (IOException e) {
+                    System.out.println("could not write checkpoint: " + e);
+                }
+            }
+        }, CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.SECONDS);
+
+        /**
+         * comparing my database with the coordinator's while I am not the coordinator
+         */
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (!isCoordinator) {
+                try {
+                    antiEntropy();
+                } catch (RemoteException | NotBoundException e) {
+                    peerStubs.invalidate(coordinator);
+                    System.out.println("anti-entropy with the coordinator failed: " + e);
+                }
+            }
+        }, ANTI_ENTROPY_INTERVAL, ANTI_ENTROPY_INTERVAL, TimeUnit.SECONDS);
 
     }
 
@@ -301,87 +758,139 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
     /**
      * Initiates the bully algorithm for leader election.
      * <p>
-     * This method is invoked to start the election process. If the current node's
-     * address matches the
-     * provided node address, it initiates the election process by comparing its
-     * server ID with that
-     * of other servers. If it finds a server with a higher ID, it sends an election
-     * challenge to that
-     * server. If no server with a higher ID is found, it declares itself as the
-     * winner. If the current
-     * node's address does not match the provided node address, it responds to the
-     * received election
-     * request with an acknowledgment.
+     * If the provided node address is this server's own address, an election is
+     * started in the background. Otherwise the call is an election challenge from a
+     * server with less power: this server answers OK right away and takes over the
+     * election in the background, so the challenger does not wait for it.
      * </p>
      *
      * @param nodeAddr the address of the node initiating the election.
-     * @return {@code null}.
+     * @return "OK" when answering a challenge, {@code null} otherwise.
      * @throws RemoteException if there is a problem accessing the remote object.
      */
     @Override
     public String startElection(String nodeAddr) throws RemoteException {
-        electionInProgress = true;
-        foundgreater = false;
+        return bulkheads.run(RequestClass.CONTROL, () -> {
+            if (!nodeAddr.equals(serverAddr)) {
+                System.out.println("Received election request from " + nodeAddr);
+            }
+            electionExecutor.execute(this::runElection);
+            return nodeAddr.equals(serverAddr) ? null : "OK";
+        });
+    }
 
-        if (nodeAddr.equals(serverAddr)) {
+    /**
+     * Runs one bully election.
+     * <p>
+     * The election starts only once the read lease this server has granted to the
+     * coordinator has ended, and no lease is granted while it runs, so the old
+     * coordinator cannot serve lease reads after a new one is elected here.
+     * All servers with more power are challenged at the same time, and the election
+     * waits at most {@code p4.election.timeout} milliseconds for one of them to
+     * answer OK. If none answers, this server has won. If one answers, this server
+     * waits at most {@code p4.election.announcementTimeout} milliseconds for the new
+     * coordinator to be announced, and starts over if nothing is announced. Only one
+     * election runs on a server at a time.
+     * </p>
+     */
+    private void runElection() {
+        if (!electionRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            electionInProgress = true;
+            if (electionStartedAt == 0) {
+                electionStartedAt = System.currentTimeMillis();
+            }
             System.out.println("You started the elections");
             System.out.println("Your id is " + serverId);
-
-            for (String anyOtherServerAddr : serverAddrs) {
-
-                /**
-                 * I will only challenge other servers
-                 */
-
-                if (!anyOtherServerAddr.equals(nodeAddr)) {
+            /**
+             * I do not elect anyone while the lease I granted to the coordinator can still be valid
+             */
+            long promiseLeft = promiseRemainingMillis(serverAddr);
+            if (promiseLeft > 0) {
+                System.out.println("Waiting " + promiseLeft + " ms for the lease I granted to end");
+                Thread.sleep(promiseLeft);
+            }
+            while (true) {
+                long announcementsBefore;
+                synchronized (electionMonitor) {
+                    announcementsBefore = announcements;
+                }
+                if (!challengeHigherServers()) {
                     try {
-                        Registry registry = LocateRegistry.getRegistry(anyOtherServerAddr, registryPort);
-                        IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry
-                                .lookup("IdServerForServer");
-                        int otherServerId = stub.getServerId();
-                        System.out.println(anyOtherServerAddr + " id is " + otherServerId);
-                        /**
-                         * now I will compare his power with mine
-                         */
-                        if (otherServerId > serverId) {
-                            /**
-                             * other server has got more power than me
-                             */
-                            System.out.println("Sending election challenge to " + anyOtherServerAddr);
-                            stub.startElection(nodeAddr);
-                            foundgreater = true;
-                        }
-                    } catch (NotBoundException e) {
-                        System.out.println("Could not connect to " + anyOtherServerAddr);
-                        continue;
-
+                        iWon(serverAddr);
                     } catch (RemoteException e) {
-                        System.out.println("Could not connect to " + anyOtherServerAddr);
-                        continue;
+                        System.out.println("Exception occurred: " + e);
                     }
+                    return;
                 }
-
+                synchronized (electionMonitor) {
+                    long deadline = System.currentTimeMillis() + ANNOUNCEMENT_TIMEOUT;
+                    while (announcements == announcementsBefore && System.currentTimeMillis() < deadline) {
+                        electionMonitor.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                    }
+                    if (announcements != announcementsBefore) {
+                        return;
+                    }
+                }
+                System.out.println("No coordinator was announced, starting the election again");
             }
-            if (!foundgreater) {
-                iWon(serverAddr);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            electionRunning.set(false);
+        }
+    }
+
+    /**
+     * Sends an election challenge to every server with more power than this server, in parallel.
+     *
+     * @return true if one of them answered OK in time.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private boolean challengeHigherServers() throws InterruptedException {
+        List<Callable<String>> challenges = new ArrayList<Callable<String>>();
+        for (String anyOtherServerAddr : serverAddrs) {
+            /**
+             * I will only challenge servers that have got more power than me
+             */
+            Integer otherServerId = addressMap.get(anyOtherServerAddr);
+            if (!anyOtherServerAddr.equals(serverAddr) && otherServerId != null && otherServerId > serverId) {
+                System.out.println("Sending election challenge to " + anyOtherServerAddr);
+                challenges.add(() -> {
+                    String response = peerStubs.call(anyOtherServerAddr, stub -> stub.startElection(serverAddr));
+                    System.out.println(anyOtherServerAddr + " Replied with Ok..");
+                    return response;
+                });
             }
-            return null;
-        } else {
-            System.out.println("Received election request from " + nodeAddr);
-            sendOk(serverAddr, nodeAddr);
-            return null;
+        }
+        if (challenges.isEmpty()) {
+            return false;
+        }
+        try {
+            electionCalls.invokeAny(challenges, ELECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            /**
+             * nobody with more power answered
+             */
+            return false;
         }
     }
 
     /**
      * Notifies other servers that the current node has won the election.
      * <p>
-     * This method is called when the current node wins the election. If the winning
-     * node is the local server,
-     * it notifies other servers of its victory by sending them a message. If the
-     * winning node is a remote server,
-     * it acknowledges the received victory message and updates its coordinator
-     * status accordingly.
+     * A server that has granted a read lease to another coordinator accepts the
+     * winner only once that lease has ended, and grants no lease meanwhile. If the
+     * winning node is the local server, it becomes the coordinator and then
+     * notifies the other servers in parallel, waiting at most
+     * {@code p4.election.timeout} milliseconds for them; it applies no write until
+     * one lease duration after that (see {@link #awaitWriteFence()}). If the winning node is a
+     * remote server, this server acknowledges it as the coordinator, unless this
+     * server has got more power, in which case it starts a new election to take
+     * over as the bully algorithm requires.
      * </p>
      *
      * @param node the address of the node that won the election.
@@ -390,56 +899,139 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      */
     @Override
     public String iWon(String node) throws RemoteException {
-        coordinator = node;
-        electionInProgress = false;
-
-        if (node.equals(serverAddr)) {
-            // send win
-            System.out.println("You have won the election.");
-            System.out.println("Letting other servers know that I (" + node + ") won the election");
-
-            for (String otherServerAddr : serverAddrs) {
-
-                if (!otherServerAddr.equals(serverAddr)) {
-                    try {
-                        Registry registry = LocateRegistry.getRegistry(otherServerAddr, registryPort);
-                        IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry
-                                .lookup("IdServerForServer");
-                        stub.iWon(node);
-                        isCoordinator = true;
-
-                    } catch (NotBoundException e) {
-                        System.out.println("Could not connect to " + otherServerAddr);
-                        continue;
-                    } catch (RemoteException e) {
-                        System.out.println("Could not connect to " + otherServerAddr);
-                        continue;
-                    }
+        return bulkheads.run(RequestClass.CONTROL, () -> {
+            long promiseLeft = promiseRemainingMillis(node);
+            if (promiseLeft > 0) {
+                /**
+                 * the lease I granted to the old coordinator can still be valid, so I will accept the new one
+                 * once it has ended
+                 */
+                synchronized (promiseLock) {
+                    pendingCoordinator = node;
                 }
+                System.out.println("Node " + node + " won the election, accepting it in " + promiseLeft + " ms");
+                leaseTimer.schedule(() -> {
+                    synchronized (promiseLock) {
+                        if (!node.equals(pendingCoordinator)) {
+                            return;
+                        }
+                    }
+                    try {
+                        iWon(node);
+                    } catch (RemoteException e) {
+                        System.out.println("Exception occurred: " + e);
+                    }
+                }, promiseLeft, TimeUnit.MILLISECONDS);
+                return null;
             }
-
-            System.out.println("Node " + node + " is the new Coodinator\n");
-        } else {
-            // receive win
-            System.out.println("Node " + node + " has won the election.");
-            System.out.println("Node " + node + " is the new Coodinator\n");
+            synchronized (promiseLock) {
+                pendingCoordinator = null;
+                promisedTo = null;
+            }
+            coordinator = node;
+            electionInProgress = false;
             /**
-             * I have lost so I will turn off my isCoordinator flag
+             * the coordinator changed, so no old grant counts any more
              */
-            isCoordinator = false;
+            leaderLease.reset();
+            replicationLag.reset();
+
+            if (node.equals(serverAddr)) {
+                // send win
+                /**
+                 * no write before the other servers know me and every lease of the old coordinator has ended
+                 */
+                writesAllowedAt = System.nanoTime() + (LeaderLease.DURATION + ELECTION_TIMEOUT) * 1000000L;
+                isCoordinator = true;
+                System.out.println("You have won the election.");
+                System.out.println("Letting other servers know that I (" + node + ") won the election");
+
+                List<Callable<String>> announcementCalls = new ArrayList<Callable<String>>();
+                for (String otherServerAddr : serverAddrs) {
+                    if (!otherServerAddr.equals(serverAddr)) {
+                        announcementCalls.add(() -> peerStubs.call(otherServerAddr, stub -> stub.iWon(node)));
+                    }
+                }
+                try {
+                    for (Future<String> announcement : electionCalls.invokeAll(announcementCalls,
+                            ELECTION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        if (announcement.isCancelled()) {
+                            System.out.println("A server did not acknowledge the new coordinator in time");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                writesAllowedAt = System.nanoTime() + LeaderLease.DURATION * 1000000L;
+                System.out.println("Node " + node + " is the new Coodinator\n");
+            } else {
+                // receive win
+                System.out.println("Node " + node + " has won the election.");
+                System.out.println("Node " + node + " is the new Coodinator\n");
+                /**
+                 * I have lost so I will turn off my isCoordinator flag
+                 */
+                isCoordinator = false;
+                Integer winnerId = addressMap.get(node);
+                if (winnerId != null && winnerId < serverId) {
+                    /**
+                     * the winner has got less power than me, so I will take over
+                     */
+                    startElection(serverAddr);
+                }
+            }
+            synchronized (electionMonitor) {
+                announcements++;
+                electionMonitor.notifyAll();
+            }
+            recordElectionDuration();
+            return null;
+        });
+    }
+
+    /**
+     * Records how long the finished election took, from the moment this server
+     * started it or joined it until a coordinator was known.
+     */
+    private synchronized void recordElectionDuration() {
+        long startedAt = electionStartedAt;
+        if (startedAt == 0) {
+            return;
         }
-        return null;
+        electionStartedAt = 0;
+        lastElectionMillis = System.currentTimeMillis() - startedAt;
+        totalElectionMillis += lastElectionMillis;
+        electionCount++;
+        System.out.println("Election finished in " + lastElectionMillis + " ms (average "
+                + totalElectionMillis / electionCount + " ms over " + electionCount + " elections)");
     }
 
     /**
-     * Sends an acknowledgment message to a specified node.
+     * Gets the executors that client and control work runs on.
+     *
+     * @return the bulkheads of this server.
+     */
+    public Bulkheads getBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Gets how long the last election took.
+     *
+     * @return the duration of the last election in milliseconds.
+     */
+    public synchronized long getLastElectionMillis() {
+        return lastElectionMillis;
+    }
+
+    /**
+     * Sends an "OK" message from one node to another.
      * <p>
-     * This method sends an acknowledgment message to the specified destination
-     * node.
-     * If the destination node is not the local server, it sends the acknowledgment
-     * and then starts an election
-     * process on the local server. If the destination node is the local server, it
-     * receives the acknowledgment.
+     * Challenges are answered with the return value of {@link #startElection}, so
+     * this method is only kept for servers that still send a separate OK. If the
+     * destination node is not the local server, the message is passed on to it;
+     * otherwise it is received and printed.
      * </p>
      *
      * @param from the address of the sending node.
@@ -449,99 +1041,264 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      */
     @Override
     public String sendOk(String from, String to) throws RemoteException {
-        if (!serverAddr.equals(to)) {
-            try {
-                Registry registry = LocateRegistry.getRegistry(to, registryPort);
-                IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry.lookup("IdServerForServer");
-                System.out.println("Sending OK to " + to + "  from " + from);
-                stub.sendOk(from, to);
-
-                // start election after sending OK
-                startElection(serverAddr);
-            } catch (NotBoundException e) {
-                System.out.println("Exception occurred: " + e);
+        return bulkheads.run(RequestClass.CONTROL, () -> {
+            if (!serverAddr.equals(to)) {
+                try {
+                    System.out.println("Sending OK to " + to + "  from " + from);
+                    peerStubs.call(to, stub -> stub.sendOk(from, to));
+                } catch (NotBoundException e) {
+                    System.out.println("Exception occurred: " + e);
+                }
+            } else {
+                // receive OK
+                System.out.println(from + " Replied with Ok..");
             }
-        } else {
-            // receive OK
-            System.out.println(from + " Replied with Ok..");
-        }
-        return null;
+            return null;
+        });
     }
 
     /**
-     * Checks if the server is alive.
+     * Grants the coordinator a read lease.
      * <p>
-     * This method is invoked to check if the server is alive.
-     * It always returns {@code true} to indicate that the server is alive.
+     * The lease is only granted to the server this server knows as the
+     * coordinator, so a coordinator that has been replaced cannot renew it, and
+     * not while an election runs here or a new coordinator waits to be accepted.
+     * The grant is a promise: until it ends this server neither accepts another
+     * coordinator nor elects itself. The
+     * coordinator's Lamport clock value and applied watermark sent with the
+     * request are used to track how far this server is behind it (see
+     * {@link ReplicationLag}).
      * </p>
      *
-     * @return {@code true}.
+     * @param coordinatorAddr      the address of the server asking for the lease.
+     * @param durationMillis       the length of the lease in milliseconds.
+     * @param coordinatorClock     the coordinator's Lamport clock value.
+     * @param coordinatorWatermark the hybrid logical clock timestamp of the
+     *                             newest operation the coordinator has applied.
+     * @return true if the lease is granted.
      * @throws RemoteException if there is a problem accessing the remote object.
      */
     @Override
-    public boolean isalive() throws RemoteException {
-        return true;
+    public boolean grantLease(String coordinatorAddr, long durationMillis, long coordinatorClock,
+                              long coordinatorWatermark) throws RemoteException {
+        return bulkheads.run(RequestClass.CONTROL, () -> {
+            synchronized (promiseLock) {
+                if (!coordinatorAddr.equals(coordinator) || pendingCoordinator != null || electionRunning.get()) {
+                    return false;
+                }
+                long until = System.nanoTime() + durationMillis * 1000000L;
+                if (!coordinatorAddr.equals(promisedTo) || until - promisedUntil > 0) {
+                    promisedUntil = until;
+                }
+                promisedTo = coordinatorAddr;
+            }
+            replicationLag.heartbeat(coordinatorClock, getAppliedCoordinatorClock(), coordinatorWatermark,
+                    appliedWatermark);
+            return true;
+        });
+    }
+
+    /**
+     * Gets how long the lease I granted to a coordinator other than the given
+     * server can still be valid.
+     *
+     * @param node the server that would become coordinator.
+     * @return the time left in milliseconds, 0 if there is none.
+     */
+    private long promiseRemainingMillis(String node) {
+        synchronized (promiseLock) {
+            if (promisedTo == null || promisedTo.equals(node)) {
+                return 0;
+            }
+            long left = promisedUntil - System.nanoTime();
+            return left > 0 ? (left + 999999) / 1000000 : 0;
+        }
     }
 
     /**
-     * Schedules a task to be executed repeatedly after a specified delay.
+     * Waits until a newly elected coordinator may apply writes: one lease
+     * duration after it was announced, so the previous coordinator's lease has
+     * ended and it no longer answers lease reads without those writes.
+     *
+     * @throws RemoteException if the thread is interrupted while waiting.
+     */
+    public void awaitWriteFence() throws RemoteException {
+        long wait = writesAllowedAt - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("interrupted while waiting for the previous coordinator's lease to end", e);
+            }
+        }
+    }
+
+    /**
+     * Stamps a new operation applied on this server with the hybrid logical clock
+     * and moves the applied watermark to it.
+     *
+     * @param operation the operation.
+     */
+    public void stampOperation(UserDbOperation operation) {
+        operation.setHlc(hybridClock.now());
+        recordApplied(operation.getHlc());
+    }
+
+    /**
+     * Moves the applied watermark forward.
+     *
+     * @param hlc the hybrid logical clock timestamp of an applied operation.
+     */
+    private synchronized void recordApplied(long hlc) {
+        if (hlc > appliedWatermark) {
+            appliedWatermark = hlc;
+            replicationLag.applied(hlc);
+        }
+    }
+
+    /**
+     * Gets the address of the current coordinator.
+     *
+     * @return the coordinator's address, or {@code null} if it is not known yet.
+     */
+    public String getCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Gets how long ago this server was last known to have everything the
+     * coordinator had. The coordinator itself is never stale.
+     *
+     * @return the staleness in milliseconds.
+     */
+    public long getStalenessMillis() {
+        return isCoordinator ? 0 : replicationLag.getStalenessMillis();
+    }
+
+    /**
+     * Gets how many Lamport ticks this server was behind the coordinator at the
+     * coordinator's last heartbeat. The coordinator itself is never behind.
+     *
+     * @return the lag in ticks.
+     */
+    public long getLagTicks() {
+        return isCoordinator ? 0 : replicationLag.getLagTicks();
+    }
+
+    /**
+     * Gets how much older, in hybrid logical clock time, the newest operation I
+     * had applied was than the newest one the coordinator had applied at its last
+     * heartbeat. The coordinator itself is never behind.
+     *
+     * @return the write lag in milliseconds.
+     */
+    public long getWriteLagMillis() {
+        return isCoordinator ? 0 : replicationLag.getWriteLagMillis();
+    }
+
+    /**
+     * Asks one server to grant me the read lease and records the grant.
+     *
+     * @param addr the address of the server.
+     * @throws RemoteException   if there is a problem accessing the remote object.
+     * @throws NotBoundException if there is an issue accessing the remote object's
+     *                           registry.
+     */
+    private void requestLease(String addr) throws RemoteException, NotBoundException {
+        long sentAt = System.nanoTime();
+        long clock = getLamportClockValue();
+        long watermark = appliedWatermark;
+        if (peerStubs.call(addr, stub -> stub.grantLease(serverAddr, LeaderLease.DURATION, clock, watermark))) {
+            leaderLease.granted(addr, sentAt);
+        }
+    }
+
+    /**
+     * Checks if this server is the coordinator and holds a valid read lease, so it
+     * can answer reads from its own database with linearizable guarantees.
      * <p>
-     * This method schedules a task to be executed repeatedly with a fixed delay of
-     * 5 seconds.
-     * The task is executed by a timer thread.
+     * No server is contacted and the caller never waits: the lease is renewed by
+     * the heartbeats of the failure detector every {@code p4.fd.interval}
+     * milliseconds, so it is only invalid right after an election or while a
+     * majority of the servers cannot be reached.
      * </p>
+     *
+     * @return true if reads can be answered locally with linearizable guarantees.
      */
-    public static void repeat() {
-        Timer timer = new Timer();
-        timer.schedule(new TimerCheck(), 5 * 1000);
+    public boolean confirmReadLease() {
+        return isCoordinator && leaderLease.isValid();
     }
 
     /**
-     * A task to check the status of servers periodically.
+     * Checks if the server is alive.
      * <p>
-     * This class extends TimerTask and overrides the run method to perform a check
-     * on the status of servers periodically.
-     * It iterates through the list of server addresses (excluding the local
-     * server's address) and checks if each server
-     * is alive. If a server is found to be unreachable, it handles the situation
-     * accordingly by either marking the
-     * coordinator as crashed or indicating that a non-coordinator server has
-     * crashed.
+     * This method is invoked to check if the server is alive.
+     * It always returns {@code true} to indicate that the server is alive.
      * </p>
+     *
+     * @return {@code true}.
+     * @throws RemoteException if there is a problem accessing the remote object.
      */
-    static class TimerCheck extends TimerTask {
-        @Override
-        public void run() {
-            System.out.println("running repeater again to check if all the servers are alive");
-            for (String serverAdd : serverAddrs) {
-                if (!serverAdd.equals(serverAddr) && !electionInProgress) {
-                    try {
-                        System.out.println("I am " + serverAddr
-                                + ", and I am now checking if other server " + serverAdd + " is alive.");
+    @Override
+    public boolean isalive() throws RemoteException {
+        return bulkheads.run(RequestClass.CONTROL, () -> {
+            return true;
+        });
+    }
 
-                        Registry registry = LocateRegistry.getRegistry(serverAdd, registryPort);
-                        IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry
-                                .lookup("IdServerForServer");
-                        stub.isalive();
-                    } catch (RemoteException e) {
-                        if (serverAdd.equals(coordinator)) {
-                            coordinatorCrashed();
-                        } else {
-                            System.out.println(serverAdd + " has crashed.");
-                        }
-                    } catch (NotBoundException e) {
-                        System.out.println("Coordinator: " + coordinator + ", serverAdd: " + serverAdd);
-                        if (serverAdd.equals(coordinator)) {
-                            coordinatorCrashed();
+    /**
+     * Starts the failure detector that checks if the other servers are alive.
+     * <p>
+     * The detector probes every other server in parallel with {@link #isalive()}
+     * (see {@link FailureDetector}), or with {@link #grantLease} while this server
+     * is the coordinator, so the heartbeats renew the coordinator's read lease. If the coordinator is suspected while no
+     * election is in progress, a new election is started; if another server is
+     * suspected, it is only reported.
+     * </p>
+     */
+    private void startFailureDetector() {
+        List<String> otherServerAddrs = new ArrayList<String>();
+        for (String anyServerAddr : serverAddrs) {
+            if (!anyServerAddr.equals(serverAddr)) {
+                otherServerAddrs.add(anyServerAddr);
+            }
+        }
+        failureDetector = new FailureDetector(otherServerAddrs,
+                addr -> {
+                    if (isCoordinator) {
+                        /**
+                         * my heartbeats also renew my read lease
+                         */
+                        requestLease(addr);
+                    } else {
+                        peerStubs.call(addr, stub -> stub.isalive());
+                    }
+                },
+                new FailureDetector.Listener() {
+                    @Override
+                    public void peerSuspected(String addr) {
+                        if (addr.equals(coordinator)) {
+                            if (!electionInProgress) {
+                                coordinatorCrashed();
+                            }
                         } else {
-                            System.out.println(serverAdd + " has crashed.");
+                            System.out.println(addr + " has crashed.");
                         }
                     }
-                }
-            }
-            repeat();
 
-        }
+                    @Override
+                    public void peerRecovered(String addr) {
+                        System.out.println(addr + " is alive again.");
+                        if (serverForClient != null) {
+                            /**
+                             * delivering what it missed without waiting for the backoff
+                             */
+                            serverForClient.getReplicationOutbox().wake(addr);
+                        }
+                    }
+                });
+        failureDetector.start();
     }
 
     /**
@@ -550,54 +1307,18 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      * This method is invoked when the current coordinator server is detected as
      * crashed.
      * It prints a notification about the coordinator crash and initiates a new
-     * election process
-     * by invoking the {@code startElection} method on the local server's
-     * {@code IdServerInterfaceForServer} stub.
+     * election process in the background. The election duration is measured from
+     * this moment.
      * </p>
      */
-    private static void coordinatorCrashed() {
+    private void coordinatorCrashed() {
         System.out.println("the current coordinator " + coordinator + " has crushed. Iniating new election");
-        try {
-            Registry registry = LocateRegistry.getRegistry("localhost", registryPort);
-            IdServerInterfaceForServer stub = (IdServerInterfaceForServer) registry.lookup("IdServerForServer");
-            stub.startElection(serverAddr);
-        } catch (RemoteException e) {
-            System.out.println("Exception occurred: " + e);
-        } catch (NotBoundException e) {
-            System.out.println("Exception occurred: " + e);
-        }
-
+        electionStartedAt = System.currentTimeMillis();
+        electionExecutor.execute(this::runElection);
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    /**
-     * an encryption method that uses SHA-512
-     *
-     * @param input the origina format password
-     * @return the hashed password
-     */
-    private static String trySHA(String input) {
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("SHA-512");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-
-        byte[] bytes = input.getBytes();
-        md.reset();
-
-        byte[] result = md.digest(bytes);
-
-        StringBuilder sb = new StringBuilder();
-        for (byte b : result) {
-            sb.append(String.format("%02X", b));
-        }
-
-        return sb.toString();
-    }
-
     /**
      * Retrieves all users stored in Redis and returns them as a HashSet.
      *
@@ -629,92 +1350,12 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
         return users;
     }
 
-    /**
-     * Creates a new user in the database with the provided information (from another server).
-     *
-     * @param loginName         The login name for the new user.
-     * @param realName          The real name of the new user.
-     * @param password          The password for the new user.
-     * @param ipAddress         The IP address of the client creating the user.
-     * @param uuid              The UUID of the new user (if not provided, a new UUID will be generated).
-     * @param createdAt         The date and time when the user is created.
-     * @param lamportClockValue The Lamport logical clock value associated with the creation.
-     * @return The UUID of the newly created user, or an error message if another creation is already in progress or the login name is already in use.
-     * @throws RemoteException If an error occurs while communicating with the database or if another creation is already in progress.
-     */
-    @Override
-    public synchronized String createUser(String loginName, String realName, String password, String ipAddress,
-                                          UUID uuid, LocalDateTime createdAt, int lamportClockValue) throws RemoteException {
-        synchronized (lock) {
-            if (primaryIsWorking) {
-                return "Another creation is already in progress. Please try again later.";
-            }
-            primaryIsWorking = true;
-            /**
-             * fetch all users from redis
-             */
-            HashSet<User> users = new HashSet<User>();
-
-            users = getUsersFromRedis();
-            /*
-             * check if someone already uing the name
-             */
-            for (User user : users) {
-                if (user.loginName.equals(loginName)) {
-                    /*
-                     * access available again
-                     */
-                    primaryIsWorking = false;
-                    return "the new login name is already in use.";
-                }
-            }
-            /**
-             * creating an UUID (if the param does not contain uuid)
-             */
-            if (uuid == null) {
-                uuid = UUID.randomUUID();
-            }
-            String encryptedPassword = trySHA(password);
-
-            /*
-             * connecting to jedispool
-             */
-            JedisPool pool = new JedisPool("localhost", 6379);
-            try (Jedis jedis = pool.getResource()) {
-                /*
-                 * creating and adding the user on redis
-                 */
-                User user = new User(loginName, realName, encryptedPassword, uuid, ipAddress, createdAt, createdAt);
-                setUser(user, jedis);
-                /**
-                 * setting lamport clock value
-                 */
-                int max = Math.max(getLamportClockValue(), lamportClockValue);
-                setLamportClockValue(max + 1);
-
-            }
-            pool.close();
-            /**
-             * send client the uuid
-             */
-            /**
-             * access available again
-             */
-            primaryIsWorking = false;
-            return uuid.toString();
-        }
-    }
-
     /**
      * Stores the information of a user in a Redis database.
      * <p>
-     * This method constructs a HashMap containing the information of the provided
-     * user,
-     * such as login name, real name, encrypted password, UUID, IP address, creation
-     * timestamp,
-     * and update timestamp. It then stores this user information in Redis under a
-     * key derived
-     * from the user's UUID.
+     * This method stores the fields of the provided user (see {@link User#toMap()})
+     * in Redis under a key derived from the user's UUID, the same way every other
+     * place that saves a user does.
      * </p>
      *
      * @param user  the user object whose information is to be stored in Redis.
@@ -723,164 +1364,229 @@ public class IdServerForServer extends java.rmi.server.UnicastRemoteObject imple
      */
     private static void setUser(User user, Jedis jedis) {
         /**
-         * saving user
+         * saving user map, and its login name in the login name index
          */
-        // Store & Retrieve a HashMap
-        Map<String, String> userMap = new HashMap<String, String>();
-        userMap.put("loginName", user.getLoginName());
-        userMap.put("realName", user.getRealName());
-        userMap.put("encryptedPassword", user.getEncryptedPassword());
-        userMap.put("uuid", String.valueOf(user.getUuid()));
-        userMap.put("ipAddress", user.getIpAddress());
-        userMap.put("createdAt", String.valueOf(user.getCreatedAt()));
-        userMap.put("updatedAt", user.getUpdatedAt().toString());
-        /**
-         * saving user map
-         */
-        jedis.hset("user-" + user.getUuid().toString(), userMap);
+        UserIndex.onSave(jedis, user);
+        jedis.hset("user-" + user.getUuid().toString(), user.toMap());
     }
 
     /**
-     * Modifies the login name of a user in the database if the provided credentials match.
+     * Retrieves the full database of users from a Redis database.
      *
-     * @param loginName         The current login name of the user.
-     * @param newLoginName      The new login name to set for the user.
-     * @param password          The password of the user.
-     * @param updatedAt         The date and time when the modification was requested.
-     * @param lamportClockValue The Lamport logical clock value associated with the modification.
-     * @return A message indicating the result of the modification attempt.
-     * @throws RemoteException If an error occurs while communicating with the database or if another modification is already in progress.
+     * @return A HashSet containing all the users retrieved from the database.
+     * @throws RemoteException If an error occurs while communicating with the Redis database.
      */
-    public synchronized String modify(String loginName, String newLoginName, String password, LocalDateTime updatedAt,
-                                      int lamportClockValue) throws RemoteException {
-        synchronized (lock) {
-            if (primaryIsWorking) {
-                return "Another modification is already in progress. Please try again later.";
-            }
+    @Override
+    public HashSet<User> getFullDataBase() throws RemoteException {
+        HashSet<User> users = getUsersFromRedis();
+        return users;
+    }
 
-            primaryIsWorking = true;
+    /**
+     * Retrieves one page of the user database using a redis SCAN cursor.
+     *
+     * @param cursor   the cursor returned with the previous page, "0" for the first page.
+     * @param pageSize the number of users to put on the page (approximately).
+     * @return the page of users and the cursor for the next page.
+     * @throws RemoteException If an error occurs while communicating with the Redis database.
+     */
+    @Override
+    public SnapshotPage getSnapshotPage(String cursor, int pageSize) throws RemoteException {
+        ArrayList<User> users = new ArrayList<User>();
+        JedisPool pool = new JedisPool("localhost", 6379);
+        ScanResult<String> scanResult;
+        try (Jedis jedis = pool.getResource()) {
+            scanResult = jedis.scan(cursor, new ScanParams().match("user-*").count(pageSize));
             /**
-             * fetch all saved users from redis
-             */
-            HashSet<User> users = new HashSet<User>();
-            users = getUsersFromRedis();
-            /*
-             * check if someone already uing the new name
+             * fetching all users of the page in one round trip
              */
-            for (User user : users) {
-                if (user.loginName.equals(newLoginName)) {
-                    /*
-                     * access available again
-                     */
-                    primaryIsWorking = false;
-                    return "the new login name is already in use.";
-                }
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+            for (String userKey : scanResult.getResult()) {
+                responses.add(pipeline.hgetAll(userKey));
             }
-            String encryptedPassword = trySHA(password);
-            for (User user : users) {
-                if (user.loginName.equals(loginName)) {
-                    if (encryptedPassword.equals(user.encryptedPassword)) {
-
-                        user.setLoginName(newLoginName, updatedAt);
-                        JedisPool pool = new JedisPool("localhost", 6379);
-                        try (Jedis jedis = pool.getResource()) {
-                            setUser(user, jedis);
-                            /**
-                             * setting lamport clock value
-                             */
-                            int max = Math.max(getLamportClockValue(), lamportClockValue);
-                            setLamportClockValue(max + 1);
-                        }
-                        pool.close();
-                        /**
-                         * access available again
-                         */
-                        primaryIsWorking = false;
-                        return "login name updated.";
-                    } else {
-                        /**
-                         * access available again
-                         */
-                        primaryIsWorking = false;
-                        return "incorrect password.";
-                    }
+            pipeline.sync();
+            for (Response<Map<String, String>> response : responses) {
+                if (!response.get().isEmpty()) {
+                    users.add(User.userFromMap(response.get()));
                 }
             }
-            /**
-             * access available again
-             */
-            primaryIsWorking = false;
-            return "no match found.";
         }
+        pool.close();
+        return new SnapshotPage(users, scanResult.getCursor());
+    }
 
+    /**
+     * Retrieves hashes of nodes of this server's merkle tree.
+     *
+     * @param nodes the node numbers, 1 for the root.
+     * @return the hashes of the nodes, in the same order.
+     * @throws RemoteException If an error occurs while communicating with the Redis database.
+     */
+    @Override
+    public ArrayList<byte[]> getMerkleNodes(int[] nodes) throws RemoteException {
+        MerkleTree tree = getMerkleTree();
+        ArrayList<byte[]> hashes = new ArrayList<byte[]>();
+        for (int node : nodes) {
+            hashes.add(tree.getNode(node));
+        }
+        return hashes;
     }
 
     /**
-     * Deletes a user from the database if the provided credentials match (request generated from another server).
+     * Retrieves the users in one uuid range of the merkle tree.
      *
-     * @param loginName         The login name of the user to delete.
-     * @param password          The password of the user.
-     * @param lamportClockValue The Lamport logical clock value associated with the deletion from the primary.
-     * @return A message indicating the result of the deletion attempt.
-     * @throws RemoteException If an error occurs while communicating with the database or if another modification is already in progress.
+     * @param range the uuid range.
+     * @return the users whose uuid is in the range.
+     * @throws RemoteException If an error occurs while communicating with the Redis database.
      */
-    public String delete(String loginName, String password, int lamportClockValue) throws RemoteException {
-        synchronized (lock) {
-            if (primaryIsWorking) {
-                return "Another modification is already in progress. Please try again later.";
-            }
-            primaryIsWorking = true;
-            String encryptedPassword = trySHA(password);
+    @Override
+    public ArrayList<User> getUsersInRange(int range) throws RemoteException {
+        ArrayList<User> users = new ArrayList<User>();
+        JedisPool pool = new JedisPool("localhost", 6379);
+        try (Jedis jedis = pool.getResource()) {
             /**
-             * fetch all saved users from redis
+             * the users of the range are read from its range set with one pipeline, without a scan of every key
              */
-            HashSet<User> users = new HashSet<User>();
-            users = getUsersFromRedis();
-            for (User user : users) {
-                if (user.loginName.equals(loginName)) {
-                    if (encryptedPassword.equals(user.encryptedPassword)) {
-                        JedisPool pool = new JedisPool("localhost", 6379);
-                        try (Jedis jedis = pool.getResource()) {
-                            jedis.del("user-" + user.getUuid().toString());
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+            for (String uuid : UserIndex.uuidsInRange(jedis, range)) {
+                responses.add(pipeline.hgetAll("user-" + uuid));
+            }
+            pipeline.sync();
+            for (Response<Map<String, String>> response : responses) {
+                if (!response.get().isEmpty()) {
+                    users.add(User.userFromMap(response.get()));
+                }
+            }
+        }
+        pool.close();
+        return users;
+    }
+
+    /**
+     * Applies a batch of client writes that another server passed on to me.
+     * <p>
+     * The writes are applied one after the other in the order they were received,
+     * and every response is sent back so the other server can answer its clients.
+     * If I am not the coordinator (anymore) no write is applied.
+     * </p>
+     *
+     * @param writes the writes.
+     * @return the response to every write, in the same order.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public ArrayList<String> applyForwardedWrites(ArrayList<ForwardedWrite> writes) throws RemoteException {
+        return bulkheads.run(RequestClass.WRITE, () -> {
+            ArrayList<String> responses = new ArrayList<String>();
+            for (ForwardedWrite write : writes) {
+                if (!isCoordinator || serverForClient == null) {
+                    responses.add("the server is not the coordinator anymore, please try again.");
+                } else {
+                    responses.add(serverForClient.applyForwardedWrite(write));
+                }
+            }
+            return responses;
+        });
+    }
+
+    /**
+     * Applies a batch of operations delivered from another server's replication outbox.
+     * <p>
+     * Every operation carries the identity of the server that first applied it, and
+     * operations already applied are skipped (see {@link DedupWindow}), so a batch
+     * that is delivered again after its acknowledgement was lost is harmless. Every
+     * new operation moves my lamport clock forward and is logged. The batch is
+     * applied on the replication executor (see {@link Bulkheads}), whether it came
+     * by RMI or by a replication stream.
+     * </p>
+     *
+     * @param operations the operations, in the order they were applied on the sending server.
+     * @return the number of operations applied, without the duplicates.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public int applyReplicatedOperations(ArrayList<UserDbOperation> operations) throws RemoteException {
+        return bulkheads.run(RequestClass.REPLICATION, () -> {
+            int applied = 0;
+            synchronized (lock) {
+                JedisPool pool = new JedisPool("localhost", 6379);
+                try (Jedis jedis = pool.getResource()) {
+                    for (UserDbOperation operation : operations) {
+                        if (!applyOnce(operation, jedis)) {
+                            System.out.println("skipping duplicate operation " + operation.getOriginServer() + "@"
+                                    + operation.getOriginClock());
+                            continue;
+                        }
+                        applied++;
+                        if (operation.getOriginServer() != null && operation.getOriginServer().equals(coordinator)) {
                             /**
-                             * setting lamport clock value
+                             * the coordinator's own operations carry its clock value, which catch-up starts from
                              */
-                            int max = Math.max(getLamportClockValue(), lamportClockValue);
-                            setLamportClockValue(max + 1);
+                            recordCoordinatorClock(operation.getOriginClock(), jedis);
                         }
-                        pool.close();
                         /**
-                         * access available again
+                         * setting lamport clock value
                          */
-                        primaryIsWorking = false;
-                        return "user deleted.";
-                    } else {
-                        /**
-                         * access available again
-                         */
-                        primaryIsWorking = false;
-                        return "incorrect password.";
+                        int max = Math.max(getLamportClockValue(), (int) operation.getOperationTimestamp());
+                        setLamportClockValue(max + 1);
+                        operationLog.append(operation.withOperationTimestamp(max + 1));
                     }
                 }
+                pool.close();
             }
-            /**
-             * access available again
-             */
-            primaryIsWorking = false;
-            return "no match found.";
+            return applied;
+        });
+    }
+
+    /**
+     * Retrieves the number of operations waiting in my replication outbox for every other server.
+     *
+     * @return the outbox depth of every other server.
+     * @throws RemoteException if there is a problem accessing the remote object.
+     */
+    @Override
+    public HashMap<String, Long> getOutboxDepths() throws RemoteException {
+        if (serverForClient == null) {
+            return new HashMap<String, Long>();
         }
+        return serverForClient.getReplicationOutbox().getDepths();
     }
 
     /**
-     * Retrieves the full database of users from a Redis database.
+     * Sets the client side of this server, which applies the writes other servers
+     * pass on to me while I am the coordinator.
      *
-     * @return A HashSet containing all the users retrieved from the database.
+     * @param serverForClient the client side of this server.
+     */
+    public void setServerForClient(IdServerForClient serverForClient) {
+        this.serverForClient = serverForClient;
+    }
+
+    /**
+     * Retrieves the operations logged after the given Lamport clock value.
+     *
+     * @param clock the Lamport clock value of the calling server.
+     * @return the missed operations in clock order, or null if the log has been truncated past the given clock.
      * @throws RemoteException If an error occurs while communicating with the Redis database.
      */
     @Override
-    public HashSet<User> getFullDataBase() throws RemoteException {
-        HashSet<User> users = getUsersFromRedis();
-        return users;
+    public ArrayList<UserDbOperation> getOperationsSince(long clock) throws RemoteException {
+        return operationLog.since(clock);
+    }
+
+    /**
+     * Retrieves the logged operations whose hybrid logical clock time is in a time range.
+     *
+     * @param fromMillis the start of the range in milliseconds, inclusive.
+     * @param toMillis   the end of the range in milliseconds, inclusive.
+     * @return the operations in the range, in time order.
+     * @throws RemoteException If an error occurs while communicating with the Redis database.
+     */
+    @Override
+    public ArrayList<UserDbOperation> getOperationsBetween(long fromMillis, long toMillis) throws RemoteException {
+        return operationLog.between(fromMillis, toMillis);
     }
 
     /**
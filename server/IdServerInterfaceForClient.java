@@ -1,6 +1,8 @@
 package p4.server;
 
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The interface for client operations on the ID server.
@@ -62,6 +64,17 @@ public interface IdServerInterfaceForClient extends java.rmi.Remote {
      */
     String lookup(String loginName) throws RemoteException;
 
+    /**
+     * returns information of an user with an specific loginName, from this server if its data is not older than
+     * the given staleness, otherwise from the coordinator.
+     *
+     * @param loginName          the username
+     * @param maxStalenessMillis the maximum staleness of the answer in milliseconds
+     * @return stringified version of the user object.
+     * @throws RemoteException If there is an issue with the remote communication
+     */
+    String lookup(String loginName, long maxStalenessMillis) throws RemoteException;
+
     /**
      * updates the user
      *
@@ -91,6 +104,114 @@ public interface IdServerInterfaceForClient extends java.rmi.Remote {
      * @throws RemoteException
      */
     String reverseLookup(String uuid) throws RemoteException;
+    /**
+     * returns information of an user with an specific uuid, from this server if its data is not older than
+     * the given staleness, otherwise from the coordinator.
+     *
+     * @param uuid               the user's uuid
+     * @param maxStalenessMillis the maximum staleness of the answer in milliseconds
+     * @return users infromation in a string format
+     * @throws RemoteException
+     */
+    String reverseLookup(String uuid, long maxStalenessMillis) throws RemoteException;
+
+    /**
+     * looks up many login names at once, with one storage batch on the server.
+     *
+     * @param loginNames the login names
+     * @return one result per login name, in the same order
+     * @throws RemoteException
+     */
+    ArrayList<LookupResult> lookupMany(List<String> loginNames) throws RemoteException;
+
+    /**
+     * looks up many UUIDs at once, with one storage batch on the server.
+     *
+     * @param uuids the UUIDs
+     * @return one result per UUID, in the same order
+     * @throws RemoteException
+     */
+    ArrayList<LookupResult> reverseLookupMany(List<String> uuids) throws RemoteException;
+
+    /**
+     * creates many users with one call; rows that cannot be created are reported and do not stop the others.
+     *
+     * @param rows the users to create
+     * @return the number of users created and the rows that failed
+     * @throws RemoteException
+     */
+    ImportReport importUsers(ArrayList<ImportRow> rows) throws RemoteException;
+
+    /**
+     * returns the next chunk of a streaming export of the directory, without password hashes.
+     *
+     * @param cursor   the cursor returned with the previous chunk, "0" to start
+     * @param pageSize the number of users per chunk
+     * @param format   "ndjson" or "binary"
+     * @return the encoded users and the cursor of the next chunk
+     * @throws RemoteException
+     */
+    ExportChunk exportChunk(String cursor, int pageSize, String format) throws RemoteException;
+
+    /**
+     * returns the next batch of directory changes after the consumer's committed offset, in lamport clock order,
+     * waiting for a change if there is none yet.
+     *
+     * @param consumerId the consumer's name
+     * @param maxBatch   the largest number of changes to return
+     * @param waitMillis how long to wait for a change in milliseconds
+     * @return the batch of changes and the offset to commit after processing them
+     * @throws RemoteException
+     */
+    ChangeBatch getChanges(String consumerId, int maxBatch, long waitMillis) throws RemoteException;
+
+    /**
+     * commits the consumer's offset, so its next batch of changes starts after it.
+     *
+     * @param consumerId the consumer's name
+     * @param offset     the offset returned with the last processed batch
+     * @throws RemoteException
+     */
+    void commitChanges(String consumerId, long offset) throws RemoteException;
+
+    /**
+     * returns the directory changes whose hybrid logical clock time is in a time range, in time order, without
+     * password hashes, to find out what changed recently. Changes older than the operation log keeps are missing.
+     *
+     * @param fromMillis the start of the range in milliseconds, inclusive
+     * @param toMillis   the end of the range in milliseconds, inclusive
+     * @return the changes in the range
+     * @throws RemoteException
+     */
+    ArrayList<ChangeEvent> getChangesBetween(long fromMillis, long toMillis) throws RemoteException;
+
+    /**
+     * returns the address of the current coordinator, which is the server that applies writes.
+     *
+     * @return the coordinator's address, or null if the server does not know it yet
+     * @throws RemoteException
+     */
+    String getCoordinatorAddr() throws RemoteException;
+
+    /**
+     * returns how busy the server is: requests in flight, recent p99 time, queued writes, replication backlog and
+     * staleness, so clients can pick the least loaded server.
+     *
+     * @return the server's load report
+     * @throws RemoteException
+     */
+    LoadReport getLoadReport() throws RemoteException;
+
+    /**
+     * returns the server's runtime report for operators: the registry lookup and connect times to every other
+     * server, the client requests turned away, and the threads busy, queue depth, requests turned away and queue
+     * wait of every request executor.
+     *
+     * @return the report as text, one line per entry
+     * @throws RemoteException
+     */
+    String getServerReport() throws RemoteException;
+
     /**
      * @param
      * @return a simple greeting message
@@ -2,60 +2,20 @@ package p4.server;
 
 
 import java.rmi.RemoteException;
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.UUID;
 
 /**
  * The interface for server operations on the ID server.
  * <p>
- * This interface defines methods for server operations on the ID server, such as creating, modifying,
- * and deleting user information, managing server coordination, and retrieving server information.
+ * This interface defines methods for server operations on the ID server, such as replicating and forwarding
+ * user operations, managing server coordination, and retrieving server information.
  * </p>
  * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
  * @version 1.0
  */
 public interface IdServerInterfaceForServer extends java.rmi.Remote {
-    /**
-     * Creates a new user in the other servers with provided login name, real name, and password.
-     *
-     * @param loginName         The login name for the user. This should be unique and used for authentication purposes.
-     * @param realName          The real name of the user.
-     * @param password          The password for the user's account.
-     * @param ipAddress         The ipaddress of the user.
-     * @param uuid              user uuid
-     * @param createdAt         the time when user was created
-     * @param lamportClockValue the sending server's lamport clock value
-     * @return A string indicating the status of the user creation process. This could be the uuid if user is sucseccfully created
-     * or an error message, depending on the outcome of the operation.
-     * @throws RemoteException If there is an issue with the remote communication during the user creation process.
-     */
-    String createUser(String loginName, String realName, String password, String ipAddress, UUID uuid, LocalDateTime createdAt, int lamportClockValue) throws RemoteException;
-    /**
-     * modify a user in the other servers with provided login name, new login name, and password.
-     *
-     * @param loginName         The login name for the user. This should be unique and used for authentication purposes.
-     * @param newLoginName          The real name of the user.
-     * @param password          The password for the user's account.
-     * @param updatedAt         when the update actually happened
-     * @param lamportClockValue the sending server's lamport clock value
-     * @return A string indicating the status of the user creation process. This could be the uuid if user is sucseccfully created
-     * or an error message, depending on the outcome of the operation.
-     * @throws RemoteException If there is an issue with the remote communication during the user creation process.
-     */
-    String modify(String loginName, String newLoginName, String password, LocalDateTime updatedAt, int lamportClockValue) throws RemoteException;
-    /**
-     * returns information of an user with an specific loginName. if deleted
-     *
-     * @param loginName the username
-     * @param password
-     * @param lamportClockValue the sending server's lamport clock value
-     * @return success or failure message
-     * @throws RemoteException If there is an issue with the remote communication
-     *                         during the user creation process.
-     */
-    String delete(String loginName, String password, int lamportClockValue) throws RemoteException;
-
     /**
      * function to check if a server is the coordinator
      * @return
@@ -89,6 +49,23 @@ public interface IdServerInterfaceForServer extends java.rmi.Remote {
      */
     public String sendOk(String from, String to) throws RemoteException;
 
+    /**
+     * grants the coordinator a read lease, if the caller is the coordinator this server knows.
+     *
+     * the coordinator's lamport clock value and applied watermark are used by the server to track how far it is
+     * behind, in ticks and in time.
+     *
+     * @param coordinatorAddr      the address of the server asking for the lease
+     * @param durationMillis       the length of the lease in milliseconds
+     * @param coordinatorClock     the coordinator's lamport clock value
+     * @param coordinatorWatermark the hybrid logical clock timestamp of the newest operation the coordinator has
+     *                             applied
+     * @return true if the lease is granted
+     * @throws RemoteException
+     */
+    public boolean grantLease(String coordinatorAddr, long durationMillis, long coordinatorClock,
+                              long coordinatorWatermark) throws RemoteException;
+
     /**
      *
      * function to check if a server is alive
@@ -105,6 +82,81 @@ public interface IdServerInterfaceForServer extends java.rmi.Remote {
      */
     public HashSet<User> getFullDataBase() throws RemoteException;
 
+    /**
+     * returns one page of the full database, so a server can copy it page by page instead of in one response.
+     *
+     * @param cursor   the cursor returned with the previous page, "0" for the first page
+     * @param pageSize the number of users to put on the page (approximately)
+     * @return the page of users and the cursor for the next page
+     * @throws RemoteException
+     */
+    public SnapshotPage getSnapshotPage(String cursor, int pageSize) throws RemoteException;
+
+    /**
+     * when a server gets up it will receive only the operations it has missed from the coordinator.
+     *
+     * @param clock the lamport clock value of the calling server
+     * @return the logged operations with a greater lamport clock value, in clock order, or null if the
+     * operation log has been truncated and the caller needs the full database instead
+     * @throws RemoteException
+     */
+    public ArrayList<UserDbOperation> getOperationsSince(long clock) throws RemoteException;
+
+    /**
+     * returns the logged operations whose hybrid logical clock time is in a time range, to find out what changed
+     * recently.
+     *
+     * @param fromMillis the start of the range in milliseconds, inclusive
+     * @param toMillis   the end of the range in milliseconds, inclusive
+     * @return the operations in the range, in time order
+     * @throws RemoteException
+     */
+    public ArrayList<UserDbOperation> getOperationsBetween(long fromMillis, long toMillis) throws RemoteException;
+
+    /**
+     * returns hashes of the server's merkle tree over uuid ranges, so that servers can compare their databases.
+     *
+     * @param nodes the node numbers of the tree, 1 for the root (see {@link MerkleTree})
+     * @return the hashes of the nodes, in the same order
+     * @throws RemoteException
+     */
+    public ArrayList<byte[]> getMerkleNodes(int[] nodes) throws RemoteException;
+
+    /**
+     * returns the users in one uuid range of the merkle tree.
+     *
+     * @param range the uuid range, between 0 and {@link MerkleTree#LEAVES} - 1
+     * @return the users whose uuid is in the range
+     * @throws RemoteException
+     */
+    public ArrayList<User> getUsersInRange(int range) throws RemoteException;
+
+    /**
+     * the coordinator applies a batch of client writes passed on by another server.
+     *
+     * @param writes the writes, in the order they were received
+     * @return the response to every write, in the same order
+     * @throws RemoteException
+     */
+    public ArrayList<String> applyForwardedWrites(ArrayList<ForwardedWrite> writes) throws RemoteException;
+
+    /**
+     * the server applies a batch of operations delivered from another server's replication outbox.
+     *
+     * @param operations the operations, in the order they were applied on the sending server
+     * @return the number of operations applied
+     * @throws RemoteException
+     */
+    public int applyReplicatedOperations(ArrayList<UserDbOperation> operations) throws RemoteException;
+
+    /**
+     * returns the number of operations waiting in the server's replication outbox for every other server.
+     *
+     * @return the outbox depth of every other server
+     * @throws RemoteException
+     */
+    public HashMap<String, Long> getOutboxDepths() throws RemoteException;
+
     /**
      * function to return the server's lamport clock from redis
      *
@@ -20,6 +20,7 @@ public class IdServerMain {
     private static final long serialVersionUID = 8510538827054962873L;
     private static int CLIENT_SIDE_REGISTRY_PORT = 5181;
     public static int SERVER_SIDE_REGISTRY_PORT = 5182;
+    public static int REPLICATION_PORT = 5183;
     /**
      * A HashMap storing the addresses and associated values.
      * <p>
@@ -94,15 +95,24 @@ public class IdServerMain {
              * run garbage calculator.
              */
             System.gc();
+            /**
+             * stubs of the other servers, shared by the client side and the server side
+             */
+            PeerStubCache<IdServerInterfaceForServer> peerStubs = new PeerStubCache<>(SERVER_SIDE_REGISTRY_PORT,
+                    "IdServerForServer");
+            IdServerForServer serverForServer = new IdServerForServer(serverAddr,
+                    SERVER_SIDE_REGISTRY_PORT, serverAddrs, addressMap, peerStubs);
             IdServerForClient serverForClient = new IdServerForClient(serverAddr, CLIENT_SIDE_REGISTRY_PORT,
-                    SERVER_SIDE_REGISTRY_PORT, serverAddrs);
+                    SERVER_SIDE_REGISTRY_PORT, serverAddrs, peerStubs, serverForServer);
+            serverForServer.setServerForClient(serverForClient);
+            new ReplicationStreamServer(REPLICATION_PORT, serverForServer, serverAddrs).start();
             serverForClient.bind("IdServerForClient");
-            IdServerForServer serverForServer = new IdServerForServer(serverAddr,
-                    SERVER_SIDE_REGISTRY_PORT, serverAddrs, addressMap);
             serverForServer.bind("IdServerForServer");
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
+                    System.out.print(serverForClient.getServerReport());
+                    System.out.println("Replication outbox depths: " + serverForServer.getOutboxDepths());
                     shutdownHook(serverForServer.isCoordinator());
                 } catch (RemoteException e) {
                     //throw new RuntimeException(e);
@@ -0,0 +1,55 @@
+package p4.server;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The ImportReport class is the result of importing one batch of users.
+ * <p>
+ * Rows that could not be created are not fatal: the other rows of the batch are created and every failed row is
+ * reported with its line and the reason.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ImportReport implements Serializable {
+    private static final long serialVersionUID = 4409117383572066302L;
+    int created;
+    ArrayList<String> errors = new ArrayList<String>();
+
+    /**
+     * Counts a created user.
+     */
+    public void addCreated() {
+        created++;
+    }
+
+    /**
+     * Records a row that could not be created.
+     *
+     * @param row    the row.
+     * @param reason why it could not be created.
+     */
+    public void addError(ImportRow row, String reason) {
+        errors.add("line " + row.getLine() + " (" + row.getLoginName() + "): " + reason);
+    }
+
+    /**
+     * Gets the number of users created.
+     *
+     * @return the number of users.
+     */
+    public int getCreated() {
+        return created;
+    }
+
+    /**
+     * Gets the rows that could not be created.
+     *
+     * @return one message per failed row, with its line and the reason.
+     */
+    public ArrayList<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,71 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The ImportRow class is one user of a bulk import, as read from the import file.
+ * <p>
+ * It carries the line of the file it came from, so the errors of the import can point at the rows to fix.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ImportRow implements Serializable {
+    private static final long serialVersionUID = 7730412956631290815L;
+    long line;
+    String loginName;
+    String realName;
+    String password;
+
+    /**
+     * Constructs a row.
+     *
+     * @param line      the line of the import file.
+     * @param loginName the login name of the new user.
+     * @param realName  the real name of the new user.
+     * @param password  the password of the new user.
+     */
+    public ImportRow(long line, String loginName, String realName, String password) {
+        this.line = line;
+        this.loginName = loginName;
+        this.realName = realName;
+        this.password = password;
+    }
+
+    /**
+     * Gets the line of the import file the row came from.
+     *
+     * @return the line number.
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the login name of the new user.
+     *
+     * @return the login name.
+     */
+    public String getLoginName() {
+        return loginName;
+    }
+
+    /**
+     * Gets the real name of the new user.
+     *
+     * @return the real name.
+     */
+    public String getRealName() {
+        return realName;
+    }
+
+    /**
+     * Gets the password of the new user.
+     *
+     * @return the password.
+     */
+    public String getPassword() {
+        return password;
+    }
+}
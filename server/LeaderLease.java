@@ -0,0 +1,86 @@
+package p4.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The LeaderLease class keeps the coordinator's read lease.
+ * <p>
+ * The coordinator asks the other servers to grant it a lease of {@code p4.lease.duration} milliseconds on every
+ * heartbeat. A server only grants the lease to the server it knows as the coordinator. The lease is valid while a
+ * majority of the servers (counting the coordinator) have granted it, measured from the moment each request was
+ * <em>sent</em>, minus a safety margin for clock drift; a granting server counts its promise from the moment it
+ * received the request, so the coordinator's lease always ends before the promises it holds. Until its promise
+ * ends, a granting server neither accepts another coordinator nor elects itself.
+ * </p>
+ * <p>
+ * A server that has just become coordinator cannot hold a valid lease, and applies no write, for one lease duration,
+ * so that any lease still held by the previous coordinator has expired before the new one serves lease reads or
+ * changes what the old one would read.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class LeaderLease {
+    /**
+     * the length of a lease in milliseconds
+     */
+    public static final long DURATION = Long.getLong("p4.lease.duration", 500);
+    private static final long DURATION_NANOS = DURATION * 1000000L;
+    /**
+     * the part of a lease that is not used, for clock drift between servers
+     */
+    private static final long MARGIN_NANOS = DURATION_NANOS / 10;
+
+    private final int clusterSize;
+    private final Map<String, Long> grantSentAt = new ConcurrentHashMap<String, Long>();
+    private volatile long notBefore;
+
+    /**
+     * Constructs a lease for a cluster.
+     *
+     * @param clusterSize the number of servers, including this one.
+     */
+    public LeaderLease(int clusterSize) {
+        this.clusterSize = clusterSize;
+        reset();
+    }
+
+    /**
+     * Drops every grant. Called when the coordinator changes.
+     */
+    public void reset() {
+        grantSentAt.clear();
+        notBefore = System.nanoTime() + DURATION_NANOS;
+    }
+
+    /**
+     * Records a grant from a server.
+     *
+     * @param addr        the address of the granting server.
+     * @param sentAtNanos the {@link System#nanoTime()} at which the lease request was sent.
+     */
+    public void granted(String addr, long sentAtNanos) {
+        grantSentAt.merge(addr, sentAtNanos, Math::max);
+    }
+
+    /**
+     * Checks if a majority of the servers currently grant the lease.
+     *
+     * @return true if the lease is valid.
+     */
+    public boolean isValid() {
+        long now = System.nanoTime();
+        if (now - notBefore < 0) {
+            return false;
+        }
+        int grants = 1;
+        for (long sentAt : grantSentAt.values()) {
+            if (now - (sentAt + DURATION_NANOS - MARGIN_NANOS) < 0) {
+                grants++;
+            }
+        }
+        return grants >= clusterSize / 2 + 1;
+    }
+}
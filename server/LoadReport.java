@@ -0,0 +1,162 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The LoadReport class tells a client how busy a server is, so the client can send its reads to a server with
+ * little load.
+ * <p>
+ * It is cheap to build: the numbers are counters the server already keeps, and the outbox depth takes one redis
+ * round trip.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class LoadReport implements Serializable {
+    private static final long serialVersionUID = 2817725036458219931L;
+    String serverAddr;
+    int inFlight;
+    double p99Millis;
+    int forwardQueueDepth;
+    long outboxDepth;
+    long stalenessMillis;
+    long lagTicks;
+    long writeLagMillis;
+    boolean coordinator;
+    long reportedAt;
+
+    /**
+     * Constructs a report.
+     *
+     * @param serverAddr        the address of the server.
+     * @param inFlight          the number of client requests being worked on.
+     * @param p99Millis         the 99th percentile time of the recent client requests in milliseconds.
+     * @param forwardQueueDepth the number of writes waiting to be passed on to the coordinator.
+     * @param outboxDepth       the number of operations waiting to be delivered to the other servers.
+     * @param stalenessMillis   how long ago the server last had everything the coordinator had, in milliseconds.
+     * @param lagTicks          how many Lamport ticks the server was behind the coordinator at its last heartbeat.
+     * @param writeLagMillis    how much older the server's newest applied operation was than the coordinator's.
+     * @param coordinator       true if the server is the coordinator.
+     */
+    public LoadReport(String serverAddr, int inFlight, double p99Millis, int forwardQueueDepth, long outboxDepth,
+                      long stalenessMillis, long lagTicks, long writeLagMillis, boolean coordinator) {
+        this.serverAddr = serverAddr;
+        this.inFlight = inFlight;
+        this.p99Millis = p99Millis;
+        this.forwardQueueDepth = forwardQueueDepth;
+        this.outboxDepth = outboxDepth;
+        this.stalenessMillis = stalenessMillis;
+        this.lagTicks = lagTicks;
+        this.writeLagMillis = writeLagMillis;
+        this.coordinator = coordinator;
+        this.reportedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the address of the server.
+     *
+     * @return the address.
+     */
+    public String getServerAddr() {
+        return serverAddr;
+    }
+
+    /**
+     * Gets the number of client requests being worked on.
+     *
+     * @return the number of requests.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gets the 99th percentile time of the recent client requests.
+     *
+     * @return the time in milliseconds.
+     */
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    /**
+     * Gets the number of writes waiting to be passed on to the coordinator.
+     *
+     * @return the number of writes.
+     */
+    public int getForwardQueueDepth() {
+        return forwardQueueDepth;
+    }
+
+    /**
+     * Gets the number of operations waiting to be delivered to the other servers.
+     *
+     * @return the number of operations.
+     */
+    public long getOutboxDepth() {
+        return outboxDepth;
+    }
+
+    /**
+     * Gets how long ago the server last had everything the coordinator had.
+     *
+     * @return the staleness in milliseconds, 0 on the coordinator.
+     */
+    public long getStalenessMillis() {
+        return stalenessMillis;
+    }
+
+    /**
+     * Gets how many Lamport ticks the server was behind the coordinator at the coordinator's last heartbeat,
+     * about the number of the coordinator's operations it was missing.
+     *
+     * @return the lag in ticks, 0 on the coordinator.
+     */
+    public long getLagTicks() {
+        return lagTicks;
+    }
+
+    /**
+     * Gets how much older, in hybrid logical clock time, the newest operation the server had applied was than the
+     * coordinator's at the coordinator's last heartbeat.
+     *
+     * @return the write lag in milliseconds, 0 on the coordinator.
+     */
+    public long getWriteLagMillis() {
+        return writeLagMillis;
+    }
+
+    /**
+     * Checks if the server is the coordinator.
+     *
+     * @return true if the server is the coordinator.
+     */
+    public boolean isCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Gets the time the report was made on the server.
+     *
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getReportedAt() {
+        return reportedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadReport{" +
+                "serverAddr='" + serverAddr + '\'' +
+                ", inFlight=" + inFlight +
+                ", p99Millis=" + p99Millis +
+                ", forwardQueueDepth=" + forwardQueueDepth +
+                ", outboxDepth=" + outboxDepth +
+                ", stalenessMillis=" + stalenessMillis +
+                ", lagTicks=" + lagTicks +
+                ", writeLagMillis=" + writeLagMillis +
+                ", coordinator=" + coordinator +
+                '}';
+    }
+}
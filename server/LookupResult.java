@@ -0,0 +1,132 @@
+package p4.server;
+
+import java.io.Serializable;
+
+/**
+ * The LookupResult class is the answer for one key of a {@code lookupMany} or {@code reverseLookupMany} call.
+ * <p>
+ * It holds the key that was asked and, if a user was found, the user's public fields; the password hash is never
+ * sent.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class LookupResult implements Serializable {
+    private static final long serialVersionUID = 5412296573107938861L;
+    String key;
+    boolean found;
+    String uuid;
+    String loginName;
+    String realName;
+    String ipAddress;
+    String createdAt;
+    String updatedAt;
+
+    /**
+     * Constructs the result of a key without a user.
+     *
+     * @param key the login name or uuid that was asked.
+     */
+    public LookupResult(String key) {
+        this.key = key;
+        this.found = false;
+    }
+
+    /**
+     * Constructs the result of a key with its user.
+     *
+     * @param key  the login name or uuid that was asked.
+     * @param user the user.
+     */
+    public LookupResult(String key, User user) {
+        this.key = key;
+        this.found = true;
+        this.uuid = user.getUuid().toString();
+        this.loginName = user.getLoginName();
+        this.realName = user.getRealName();
+        this.ipAddress = user.getIpAddress();
+        this.createdAt = String.valueOf(user.getCreatedAt());
+        this.updatedAt = String.valueOf(user.getUpdatedAt());
+    }
+
+    /**
+     * Gets the key that was asked.
+     *
+     * @return the login name or uuid.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Checks if a user was found for the key.
+     *
+     * @return true if a user was found.
+     */
+    public boolean isFound() {
+        return found;
+    }
+
+    /**
+     * Gets the uuid of the user.
+     *
+     * @return the uuid, null if no user was found.
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Gets the login name of the user.
+     *
+     * @return the login name, null if no user was found.
+     */
+    public String getLoginName() {
+        return loginName;
+    }
+
+    /**
+     * Gets the real name of the user.
+     *
+     * @return the real name, null if no user was found.
+     */
+    public String getRealName() {
+        return realName;
+    }
+
+    /**
+     * Gets the address the user was created from.
+     *
+     * @return the ip address, null if no user was found.
+     */
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    /**
+     * Gets the time the user was created.
+     *
+     * @return the time, null if no user was found.
+     */
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Gets the time the user was last modified.
+     *
+     * @return the time, null if no user was found.
+     */
+    public String getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        if (!found) {
+            return key + ": not found";
+        }
+        return key + ": { uuid: " + uuid + ",login name: " + loginName + ", real name: " + realName + "}";
+    }
+}
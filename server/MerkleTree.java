@@ -0,0 +1,234 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MerkleTree class is a hash tree over the user database, used by servers to find out which parts of
+ * their databases differ without sending the databases to each other.
+ * <p>
+ * Users are put into {@link #LEAVES} ranges by the first {@code p4.merkle.rangeDigits} hex digits of their uuid
+ * (3 by default, so 4096 ranges, between 1 and 4). A range should hold at most a few thousand users, because
+ * anti-entropy fetches the whole range to repair one user in it, so a larger directory needs one more digit; every
+ * server must use the same number, and the range sets are built again on startup when it changes. A leaf holds
+ * the XOR of the SHA-256 hashes of the users in its range, so it does not depend on the order redis returns them
+ * in, and every inner node is the SHA-256 of its two children. Nodes are numbered like a heap: the root is node 1,
+ * the children of node i are 2i and 2i+1, and the leaf for range r is node {@code LEAVES + r}.
+ * </p>
+ * <p>
+ * The tree is built once with a scan of every user and then kept up to date: every write marks the range of its
+ * user as changed (see {@link UserIndex}), and {@link #refresh(Jedis)} hashes the users of the changed ranges again,
+ * read from their range sets, and the nodes above them. The changed ranges are taken out of the set one by one,
+ * so a range marked again while a tree is built or refreshed stays marked for the next refresh. A range written
+ * while it is being refreshed can keep an old hash until its next write; anti-entropy then repairs that range once
+ * more, which is harmless.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class MerkleTree {
+    /**
+     * number of leading uuid hex digits that pick the range of a user
+     */
+    public static final int RANGE_DIGITS = Math.max(1, Math.min(4, Integer.getInteger("p4.merkle.rangeDigits", 3)));
+    /**
+     * number of uuid ranges (leaves) in the tree
+     */
+    public static final int LEAVES = 1 << (4 * RANGE_DIGITS);
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    /**
+     * the ranges written since the last refresh, shared by every tree of this server
+     */
+    private static final Set<Integer> DIRTY = ConcurrentHashMap.newKeySet();
+
+    private final byte[][] nodes = new byte[2 * LEAVES][];
+    private final long builtAt;
+
+    /**
+     * Builds the tree from every user saved in redis.
+     *
+     * @param jedis the Jedis object representing the connection to the Redis database.
+     */
+    public MerkleTree(Jedis jedis) {
+        /**
+         * the scan below reads every range, so the marks made before it are not needed
+         */
+        takeDirty();
+        for (int leaf = 0; leaf < LEAVES; leaf++) {
+            nodes[LEAVES + leaf] = new byte[32];
+        }
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> scanResult = jedis.scan(cursor, new ScanParams().match("user-*").count(SCAN_PAGE_SIZE));
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+            for (String userKey : scanResult.getResult()) {
+                responses.add(pipeline.hgetAll(userKey));
+            }
+            pipeline.sync();
+            for (Response<Map<String, String>> response : responses) {
+                if (!response.get().isEmpty()) {
+                    User user = User.userFromMap(response.get());
+                    byte[] leafHash = nodes[LEAVES + rangeOf(user.getUuid().toString())];
+                    byte[] userHash = hashOf(user);
+                    for (int i = 0; i < leafHash.length; i++) {
+                        leafHash[i] ^= userHash[i];
+                    }
+                }
+            }
+            cursor = scanResult.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        for (int node = LEAVES - 1; node >= 1; node--) {
+            nodes[node] = hashOfChildren(node);
+        }
+        builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Hashes the users of every range written since the last refresh again, and the nodes above them.
+     *
+     * @param jedis the Jedis object representing the connection to the Redis database.
+     */
+    public synchronized void refresh(Jedis jedis) {
+        Set<Integer> parents = new TreeSet<Integer>(Comparator.reverseOrder());
+        for (Integer range : takeDirty()) {
+            List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>();
+            Pipeline pipeline = jedis.pipelined();
+            for (String uuid : UserIndex.uuidsInRange(jedis, range)) {
+                responses.add(pipeline.hgetAll("user-" + uuid));
+            }
+            pipeline.sync();
+            byte[] leafHash = new byte[32];
+            for (Response<Map<String, String>> response : responses) {
+                if (!response.get().isEmpty()) {
+                    byte[] userHash = hashOf(User.userFromMap(response.get()));
+                    for (int i = 0; i < leafHash.length; i++) {
+                        leafHash[i] ^= userHash[i];
+                    }
+                }
+            }
+            nodes[LEAVES + range] = leafHash;
+            parents.add((LEAVES + range) / 2);
+        }
+        /**
+         * the nodes above the changed leaves, from the bottom up; every node is replaced, never changed in place,
+         * so a concurrent reader sees either the old or the new hash
+         */
+        while (!parents.isEmpty()) {
+            int node = parents.iterator().next();
+            parents.remove(node);
+            nodes[node] = hashOfChildren(node);
+            if (node > 1) {
+                parents.add(node / 2);
+            }
+        }
+    }
+
+    /**
+     * Marks the range of a user as written, so the next refresh hashes it again.
+     *
+     * @param uuid the uuid of the user.
+     */
+    public static void markDirty(String uuid) {
+        DIRTY.add(rangeOf(uuid));
+    }
+
+    /**
+     * Marks every range as written, for when many users are deleted without the index.
+     */
+    public static void markAllDirty() {
+        for (int range = 0; range < LEAVES; range++) {
+            DIRTY.add(range);
+        }
+    }
+
+    /**
+     * Takes the ranges written since the last call out of the set. Every range is removed on its own, so a range
+     * marked again after it was taken stays in the set; clearing the whole set could drop such a mark.
+     *
+     * @return the ranges written.
+     */
+    private static Set<Integer> takeDirty() {
+        Set<Integer> taken = new TreeSet<Integer>();
+        for (Integer range : DIRTY) {
+            if (DIRTY.remove(range)) {
+                taken.add(range);
+            }
+        }
+        return taken;
+    }
+
+    private byte[] hashOfChildren(int node) {
+        MessageDigest md = sha256();
+        md.update(nodes[2 * node]);
+        md.update(nodes[2 * node + 1]);
+        return md.digest();
+    }
+
+    /**
+     * Gets the hash of a node.
+     *
+     * @param node the node number, 1 for the root.
+     * @return the hash of the node.
+     */
+    public byte[] getNode(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Gets the time the tree was built at.
+     *
+     * @return the build time in milliseconds.
+     */
+    public long getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * Gets the uuid range of a user.
+     *
+     * @param uuid the user's uuid.
+     * @return the range, between 0 and {@code LEAVES - 1}.
+     */
+    public static int rangeOf(String uuid) {
+        return Integer.parseInt(uuid.substring(0, RANGE_DIGITS), 16);
+    }
+
+    /**
+     * Hashes every field of a user, so that any difference between two copies of the user changes the hash.
+     *
+     * @param user the user.
+     * @return the SHA-256 hash of the user.
+     */
+    public static byte[] hashOf(User user) {
+        String record = user.getUuid() + "|" + user.getLoginName() + "|" + user.getRealName() + "|"
+                + user.getEncryptedPassword() + "|" + user.getIpAddress() + "|" + user.getCreatedAt() + "|"
+                + user.getUpdatedAt();
+        return sha256().digest(record.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.resps.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The OperationLog class is an append-only log of {@link UserDbOperation} records, indexed by the
+ * Lamport clock value at which each operation was applied.
+ * <p>
+ * The log lives in redis as a sorted set whose score is the Lamport clock value, so a lagging server can ask
+ * for the suffix of operations it has missed instead of copying the whole database. The log keeps at most
+ * {@code p4.oplog.maxEntries} operations; when older operations are dropped the highest dropped clock value
+ * is remembered so that callers can tell a truncated log apart from an empty suffix.
+ * </p>
+ * <p>
+ * Operations stamped with a hybrid logical clock timestamp are also indexed by its physical time in a second
+ * sorted set, so the log can answer what changed in a time range, and operations older than
+ * {@code p4.oplog.retention} milliseconds are dropped without asking any other server.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class OperationLog {
+    private static final String OPLOG_KEY = "oplog";
+    private static final String OPLOG_FLOOR_KEY = "oplog_floor";
+    private static final String OPLOG_TIME_KEY = "oplog_time";
+    /**
+     * maximum number of operations kept in the log
+     */
+    private static final int MAX_ENTRIES = Integer.getInteger("p4.oplog.maxEntries", 10000);
+    /**
+     * how long operations are kept in the log, in milliseconds
+     */
+    private static final long RETENTION = Long.getLong("p4.oplog.retention", 24 * 60 * 60 * 1000L);
+    private static final int EXPIRE_BATCH = 1000;
+    /**
+     * notified on every append, by every log of this server, so change feed readers can wait for new operations
+     */
+    private static final Object APPENDED = new Object();
+
+    private final JedisPool pool = new JedisPool("localhost", 6379);
+
+    /**
+     * Appends an operation to the log. The operation timestamp is used as the Lamport clock index.
+     * Once the log grows over its limit the oldest operations are removed.
+     *
+     * @param operation the operation to append.
+     */
+    public void append(UserDbOperation operation) {
+        try (Jedis jedis = pool.getResource()) {
+            String json = operation.toJson();
+            jedis.zadd(OPLOG_KEY, operation.getOperationTimestamp(), json);
+            if (operation.getHlc() != 0) {
+                jedis.zadd(OPLOG_TIME_KEY, HybridLogicalClock.physicalMillis(operation.getHlc()), json);
+            }
+            trim(jedis);
+        }
+        synchronized (APPENDED) {
+            APPENDED.notifyAll();
+        }
+    }
+
+    /**
+     * Appends many operations to the log with one redis pipeline, for bulk writes.
+     *
+     * @param operations the operations to append.
+     */
+    public void appendAll(List<UserDbOperation> operations) {
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (UserDbOperation operation : operations) {
+                String json = operation.toJson();
+                pipeline.zadd(OPLOG_KEY, operation.getOperationTimestamp(), json);
+                if (operation.getHlc() != 0) {
+                    pipeline.zadd(OPLOG_TIME_KEY, HybridLogicalClock.physicalMillis(operation.getHlc()), json);
+                }
+            }
+            pipeline.sync();
+            trim(jedis);
+        }
+        synchronized (APPENDED) {
+            APPENDED.notifyAll();
+        }
+    }
+
+    /**
+     * Removes the oldest operations once the log is over its limit, and the operations older than the retention.
+     *
+     * @param jedis the Jedis object representing the connection to the Redis database.
+     */
+    private void trim(Jedis jedis) {
+        long excess = jedis.zcard(OPLOG_KEY) - MAX_ENTRIES;
+        if (excess > 0) {
+            List<String> dropped = new ArrayList<String>();
+            for (Tuple tuple : jedis.zrangeWithScores(OPLOG_KEY, 0, excess - 1)) {
+                dropped.add(tuple.getElement());
+            }
+            drop(jedis, dropped);
+        }
+
+        List<String> expired = jedis.zrangeByScore(OPLOG_TIME_KEY, "-inf",
+                "(" + (System.currentTimeMillis() - RETENTION), 0, EXPIRE_BATCH);
+        if (!expired.isEmpty()) {
+            drop(jedis, expired);
+        }
+    }
+
+    /**
+     * Waits until an operation is appended to the log, or the timeout passes.
+     *
+     * @param timeoutMillis the longest time to wait, in milliseconds.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public static void awaitAppend(long timeoutMillis) throws InterruptedException {
+        if (timeoutMillis > 0) {
+            synchronized (APPENDED) {
+                APPENDED.wait(timeoutMillis);
+            }
+        }
+    }
+
+    /**
+     * Removes operations from the log and raises the floor to the highest clock value dropped.
+     *
+     * @param jedis   the Jedis object representing the connection to the Redis database.
+     * @param members the logged operations to remove.
+     */
+    private void drop(Jedis jedis, List<String> members) {
+        String[] memberArray = members.toArray(new String[0]);
+        long floor = 0;
+        String currentFloor = jedis.get(OPLOG_FLOOR_KEY);
+        if (currentFloor != null) {
+            floor = Long.parseLong(currentFloor);
+        }
+        for (Double score : jedis.zmscore(OPLOG_KEY, memberArray)) {
+            if (score != null) {
+                floor = Math.max(floor, score.longValue());
+            }
+        }
+        jedis.zrem(OPLOG_KEY, memberArray);
+        jedis.zrem(OPLOG_TIME_KEY, memberArray);
+        jedis.set(OPLOG_FLOOR_KEY, Long.toString(floor));
+    }
+
+    /**
+     * Returns at most {@code limit} logged operations whose Lamport clock value is greater than the given clock,
+     * in clock order.
+     *
+     * @param clock the last clock value the caller has seen.
+     * @param limit the largest number of operations to return.
+     * @return the next operations, or {@code null} if the log has been truncated past the given clock.
+     */
+    public ArrayList<UserDbOperation> since(long clock, int limit) {
+        try (Jedis jedis = pool.getResource()) {
+            String floor = jedis.get(OPLOG_FLOOR_KEY);
+            if (floor != null && clock < Long.parseLong(floor)) {
+                return null;
+            }
+            ArrayList<UserDbOperation> operations = new ArrayList<UserDbOperation>();
+            for (String json : jedis.zrangeByScore(OPLOG_KEY, "(" + clock, "+inf", 0, limit)) {
+                operations.add(UserDbOperation.fromJson(json));
+            }
+            return operations;
+        }
+    }
+
+    /**
+     * Gets the Lamport clock value of the newest logged operation.
+     *
+     * @return the clock value, 0 if the log is empty.
+     */
+    public long getNewestClock() {
+        try (Jedis jedis = pool.getResource()) {
+            List<Tuple> newest = jedis.zrangeWithScores(OPLOG_KEY, -1, -1);
+            return newest.isEmpty() ? 0 : (long) newest.get(0).getScore();
+        }
+    }
+
+    /**
+     * Returns every logged operation whose hybrid logical clock timestamp falls in a time range, in time order.
+     *
+     * @param fromMillis the start of the range in milliseconds, inclusive.
+     * @param toMillis   the end of the range in milliseconds, inclusive.
+     * @return the operations in the range that are still in the log.
+     */
+    public ArrayList<UserDbOperation> between(long fromMillis, long toMillis) {
+        try (Jedis jedis = pool.getResource()) {
+            ArrayList<UserDbOperation> operations = new ArrayList<UserDbOperation>();
+            for (String json : jedis.zrangeByScore(OPLOG_TIME_KEY, fromMillis, toMillis)) {
+                operations.add(UserDbOperation.fromJson(json));
+            }
+            operations.sort((a, b) -> Long.compare(a.getHlc(), b.getHlc()));
+            return operations;
+        }
+    }
+
+    /**
+     * Gets a hybrid logical clock timestamp greater than every timestamp in the log, to seed the clock with
+     * on startup.
+     *
+     * @return the seed, 0 if no logged operation has a timestamp.
+     */
+    public long getClockSeed() {
+        try (Jedis jedis = pool.getResource()) {
+            List<Tuple> newest = jedis.zrangeWithScores(OPLOG_TIME_KEY, -1, -1);
+            if (newest.isEmpty()) {
+                return 0;
+            }
+            return HybridLogicalClock.fromMillis((long) newest.get(0).getScore() + 1);
+        }
+    }
+
+    /**
+     * Returns every logged operation whose Lamport clock value is greater than the given clock, in clock order.
+     *
+     * @param clock the last clock value the caller has seen.
+     * @return the missing operations, or {@code null} if the log has been truncated past the given clock and
+     * the caller has to fall back to a full copy of the database.
+     */
+    public ArrayList<UserDbOperation> since(long clock) {
+        try (Jedis jedis = pool.getResource()) {
+            String floor = jedis.get(OPLOG_FLOOR_KEY);
+            if (floor != null && clock < Long.parseLong(floor)) {
+                return null;
+            }
+            ArrayList<UserDbOperation> operations = new ArrayList<UserDbOperation>();
+            for (String json : jedis.zrangeByScore(OPLOG_KEY, "(" + clock, "+inf")) {
+                operations.add(UserDbOperation.fromJson(json));
+            }
+            return operations;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package p4.server;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * The PeerSocketFactory class creates the sockets of the RMI calls between servers, and of the registry lookups,
+ * with a connect timeout of {@code p4.rmi.connectTimeout} milliseconds (2000) and a read timeout of
+ * {@code p4.rmi.readTimeout} milliseconds (10000).
+ * <p>
+ * RMI calls have no timeout of their own, so without these a call to a server that hangs keeps its thread
+ * forever, and the failure detector, the elections and the replication all wait on it. The factory travels with
+ * the stub, so the timeouts are those of the calling server.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class PeerSocketFactory implements RMIClientSocketFactory, Serializable {
+    private static final long serialVersionUID = 6092741593518225317L;
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("p4.rmi.connectTimeout", 2000);
+    private static final int READ_TIMEOUT = Integer.getInteger("p4.rmi.readTimeout", 10000);
+
+    /**
+     * Creates a socket connected to a server, with the connect and read timeouts.
+     *
+     * @param host the host name.
+     * @param port the port number.
+     * @return the connected socket.
+     * @throws IOException if the connection cannot be made in time.
+     */
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * All instances make the same sockets, so RMI can share its connections between stubs.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
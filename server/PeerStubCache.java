@@ -0,0 +1,214 @@
+package p4.server;
+
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The PeerStubCache class keeps the stubs of other servers, so that a call to a server does not need a
+ * registry lookup first.
+ * <p>
+ * A stub is looked up once per server address and reused. When a call fails because the server could not be
+ * reached or the remote object is gone (for example the server was restarted), the stub is dropped and looked up
+ * again. Those failures happen before the call reaches the remote object, so the call is retried once with the
+ * new stub. Any other failure, such as a timeout or an exception thrown by the remote method, is thrown to the
+ * caller and the stub is kept: it still points at a live remote object, and RMI opens a new connection for the
+ * next call by itself.
+ * </p>
+ * <p>
+ * For every server address the time of each registry lookup is kept, and the time of the first call made with
+ * each new stub. RMI opens the connection (TCP and the SSL handshake) on the first call of a stub, so the first
+ * call time is the connect time plus one call.
+ * </p>
+ *
+ * @param <T> the remote interface of the stubs
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class PeerStubCache<T extends Remote> {
+    private final int registryPort;
+    private final String bindingName;
+    private final Map<String, T> stubs = new ConcurrentHashMap<String, T>();
+    private final Map<String, PeerLatency> latencies = new ConcurrentHashMap<String, PeerLatency>();
+    /**
+     * the addresses whose cached stub has not made a successful call yet
+     */
+    private final Set<String> unconnected = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A remote call made with a cached stub.
+     *
+     * @param <T> the remote interface of the stub
+     * @param <R> the result of the call
+     */
+    public interface PeerCall<T, R> {
+        R call(T stub) throws RemoteException;
+    }
+
+    /**
+     * Constructs a stub cache.
+     *
+     * @param registryPort the port of the other servers' registries.
+     * @param bindingName  the name the stubs are bound to in the registries.
+     */
+    public PeerStubCache(int registryPort, String bindingName) {
+        this.registryPort = registryPort;
+        this.bindingName = bindingName;
+    }
+
+    /**
+     * Gets the stub of a server, looking it up in the server's registry if it is not cached.
+     *
+     * @param addr the address of the server.
+     * @return the stub.
+     * @throws RemoteException   if the registry cannot be reached.
+     * @throws NotBoundException if nothing is bound in the registry under the binding name.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String addr) throws RemoteException, NotBoundException {
+        T stub = stubs.get(addr);
+        if (stub == null) {
+            long startTime = System.nanoTime();
+            Registry registry = LocateRegistry.getRegistry(addr, registryPort, new PeerSocketFactory());
+            stub = (T) registry.lookup(bindingName);
+            long lookupTime = System.nanoTime() - startTime;
+            latencyOf(addr).addLookup(lookupTime);
+            System.out.println("looked up " + bindingName + " on " + addr + " in " + lookupTime / 1000000.0 + " ms");
+            unconnected.add(addr);
+            stubs.put(addr, stub);
+        }
+        return stub;
+    }
+
+    /**
+     * Drops the cached stub of a server, so that the next call looks it up again.
+     *
+     * @param addr the address of the server.
+     */
+    public void invalidate(String addr) {
+        stubs.remove(addr);
+        unconnected.remove(addr);
+    }
+
+    /**
+     * Makes a call to a server with its cached stub.
+     *
+     * @param addr the address of the server.
+     * @param call the call to make.
+     * @param <R>  the result of the call.
+     * @return the result of the call.
+     * @throws RemoteException   if the call fails.
+     * @throws NotBoundException if the server's stub cannot be looked up.
+     */
+    public <R> R call(String addr, PeerCall<T, R> call) throws RemoteException, NotBoundException {
+        T stub = get(addr);
+        try {
+            return timedCall(addr, stub, call);
+        } catch (ConnectException | ConnectIOException | NoSuchObjectException e) {
+            /**
+             * the call did not reach the server, so I will look the stub up again and retry once
+             */
+            invalidate(addr);
+            try {
+                return timedCall(addr, get(addr), call);
+            } catch (ConnectException | ConnectIOException | NoSuchObjectException | NotBoundException
+                    retryException) {
+                invalidate(addr);
+                throw retryException;
+            }
+        }
+    }
+
+    /**
+     * Makes a call with a stub, and records its time as the connect time if it is the first successful call of
+     * the stub.
+     *
+     * @param addr the address of the server.
+     * @param stub the stub.
+     * @param call the call to make.
+     * @param <R>  the result of the call.
+     * @return the result of the call.
+     * @throws RemoteException if the call fails.
+     */
+    private <R> R timedCall(String addr, T stub, PeerCall<T, R> call) throws RemoteException {
+        if (!unconnected.contains(addr)) {
+            return call.call(stub);
+        }
+        long startTime = System.nanoTime();
+        R result = call.call(stub);
+        if (unconnected.remove(addr)) {
+            long connectTime = System.nanoTime() - startTime;
+            latencyOf(addr).addConnect(connectTime);
+            System.out.println("connected to " + bindingName + " on " + addr + " in " + connectTime / 1000000.0
+                    + " ms");
+        }
+        return result;
+    }
+
+    private PeerLatency latencyOf(String addr) {
+        return latencies.computeIfAbsent(addr, a -> new PeerLatency());
+    }
+
+    /**
+     * Returns the number of lookups and connects and the last and average time of each for every server.
+     *
+     * @return the lookup and connect latency of every server as a string.
+     */
+    public String getLatencyReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, PeerLatency> entry : latencies.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lookup and connect times of one server.
+     */
+    private static class PeerLatency {
+        private final Latency lookups = new Latency();
+        private final Latency connects = new Latency();
+
+        void addLookup(long nanos) {
+            lookups.add(nanos);
+        }
+
+        void addConnect(long nanos) {
+            connects.add(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return lookups + " lookups, " + connects + " connects (first call)";
+        }
+    }
+
+    /**
+     * Count, last and average of one kind of time.
+     */
+    private static class Latency {
+        private long count;
+        private long totalNanos;
+        private long lastNanos;
+
+        synchronized void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            lastNanos = nanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return count + " (last " + lastNanos / 1000000.0 + " ms, average "
+                    + (count == 0 ? 0 : totalNanos / count / 1000000.0) + " ms)";
+        }
+    }
+}
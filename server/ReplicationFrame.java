@@ -0,0 +1,164 @@
+package p4.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ReplicationFrame class is one frame of the replication stream between two servers.
+ * <p>
+ * Every frame starts with its length (an int, not counting the length itself) and its type (a byte):
+ * </p>
+ * <ul>
+ * <li>{@link #HELLO}: sent once by the sending server, followed by its address in UTF-8.</li>
+ * <li>{@link #OPERATION}: a sequence number (a long, counting from 1 on every connection) followed by the
+ * operation as JSON in UTF-8 (see {@link UserDbOperation#toJson()}).</li>
+ * <li>{@link #ACK}: sent back by the receiving server with the sequence number of the last operation it has
+ * applied; it acknowledges every operation up to that number.</li>
+ * </ul>
+ * <p>
+ * A frame longer than {@code p4.stream.maxFrame} bytes (1 MB), or too short for its type, is malformed; the reader
+ * throws and the connection is closed, so a broken or hostile peer cannot make a server allocate without bound.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ReplicationFrame {
+    public static final byte HELLO = 1;
+    public static final byte OPERATION = 2;
+    public static final byte ACK = 3;
+    private static final int MAX_LENGTH = Integer.getInteger("p4.stream.maxFrame", 1 << 20);
+
+    private final byte type;
+    private final long sequence;
+    private final String text;
+
+    private ReplicationFrame(byte type, long sequence, String text) {
+        this.type = type;
+        this.sequence = sequence;
+        this.text = text;
+    }
+
+    /**
+     * Writes a hello frame. The stream is not flushed.
+     *
+     * @param out        the stream.
+     * @param serverAddr the address of the sending server.
+     * @throws IOException if the frame cannot be written.
+     */
+    public static void writeHello(DataOutputStream out, String serverAddr) throws IOException {
+        byte[] bytes = serverAddr.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + bytes.length);
+        out.writeByte(HELLO);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an operation frame. The stream is not flushed.
+     *
+     * @param out       the stream.
+     * @param sequence  the sequence number of the operation on this connection.
+     * @param operation the operation as JSON.
+     * @throws IOException if the frame cannot be written.
+     */
+    public static void writeOperation(DataOutputStream out, long sequence, String operation) throws IOException {
+        byte[] bytes = operation.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + 8 + bytes.length);
+        out.writeByte(OPERATION);
+        out.writeLong(sequence);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an acknowledgement frame. The stream is not flushed.
+     *
+     * @param out      the stream.
+     * @param sequence the sequence number of the last applied operation.
+     * @throws IOException if the frame cannot be written.
+     */
+    public static void writeAck(DataOutputStream out, long sequence) throws IOException {
+        out.writeInt(1 + 8);
+        out.writeByte(ACK);
+        out.writeLong(sequence);
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param in the stream.
+     * @return the frame.
+     * @throws IOException if the stream is closed or the frame is malformed; the caller must close the
+     *                     connection, since the rest of the stream cannot be read.
+     */
+    public static ReplicationFrame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_LENGTH) {
+            throw new IOException("malformed replication frame of length " + length);
+        }
+        byte type = in.readByte();
+        switch (type) {
+            case HELLO: {
+                byte[] bytes = new byte[length - 1];
+                in.readFully(bytes);
+                return new ReplicationFrame(type, 0, new String(bytes, StandardCharsets.UTF_8));
+            }
+            case OPERATION: {
+                checkLength(type, length, 9);
+                long sequence = in.readLong();
+                byte[] bytes = new byte[length - 9];
+                in.readFully(bytes);
+                return new ReplicationFrame(type, sequence, new String(bytes, StandardCharsets.UTF_8));
+            }
+            case ACK:
+                if (length != 9) {
+                    throw new IOException("malformed replication frame of type " + type + " and length " + length);
+                }
+                return new ReplicationFrame(type, in.readLong(), null);
+            default:
+                throw new IOException("unknown replication frame type " + type);
+        }
+    }
+
+    /**
+     * Checks that a frame is long enough for its type.
+     *
+     * @param type      the type of the frame.
+     * @param length    the length of the frame.
+     * @param minLength the shortest valid length of the type.
+     * @throws IOException if the frame is too short.
+     */
+    private static void checkLength(byte type, int length, int minLength) throws IOException {
+        if (length < minLength) {
+            throw new IOException("malformed replication frame of type " + type + " and length " + length);
+        }
+    }
+
+    /**
+     * Gets the type of the frame.
+     *
+     * @return one of {@link #HELLO}, {@link #OPERATION} or {@link #ACK}.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Gets the sequence number of an operation or acknowledgement frame.
+     *
+     * @return the sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the server address of a hello frame or the operation JSON of an operation frame.
+     *
+     * @return the text of the frame.
+     */
+    public String getText() {
+        return text;
+    }
+}
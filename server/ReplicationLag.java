@@ -0,0 +1,119 @@
+package p4.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The ReplicationLag class tracks how far a server that is not the coordinator is behind the coordinator.
+ * <p>
+ * The coordinator sends its applied watermark, the hybrid logical clock timestamp of the newest operation it has
+ * applied, with every heartbeat, and the server keeps it with the time the heartbeat arrived. Once the server has
+ * applied that watermark itself, its database holds at least everything the coordinator had at that time, so the
+ * staleness is how long ago the newest such heartbeat arrived. Under steady writes a server is always a little
+ * behind when a heartbeat arrives, but it catches up with it shortly after, so its staleness stays at about the
+ * replication delay instead of growing. A server that stops hearing from the coordinator becomes more stale on
+ * its own.
+ * </p>
+ * <p>
+ * The coordinator also sends its Lamport clock value; the lag in ticks is how far it is ahead of the coordinator
+ * clock of the newest coordinator operation this server has applied, which is about the number of the
+ * coordinator's operations the server is missing. The write lag is how much older the newest operation this server
+ * had applied was than the coordinator's at the last heartbeat, in milliseconds of hybrid logical clock time.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ReplicationLag {
+    /**
+     * the most heartbeats kept while the server is behind, 100 seconds of heartbeats at the default interval
+     */
+    private static final int MAX_PENDING = 1000;
+
+    /**
+     * the watermarks of the heartbeats not applied here yet, with the time each arrived, oldest first
+     */
+    private final Deque<long[]> pending = new ArrayDeque<long[]>();
+    private long caughtUpAt = 0;
+    private long lagTicks = Long.MAX_VALUE;
+    private long writeLagMillis = 0;
+
+    /**
+     * Records a heartbeat of the coordinator.
+     *
+     * @param coordinatorClock     the coordinator's Lamport clock value sent with the heartbeat.
+     * @param myCoordinatorClock   the coordinator clock value of the newest coordinator operation applied here.
+     * @param coordinatorWatermark the coordinator's applied watermark sent with the heartbeat.
+     * @param myWatermark          this server's applied watermark.
+     */
+    public synchronized void heartbeat(long coordinatorClock, long myCoordinatorClock, long coordinatorWatermark,
+                                       long myWatermark) {
+        long now = System.currentTimeMillis();
+        lagTicks = Math.max(0, coordinatorClock - myCoordinatorClock);
+        writeLagMillis = 0;
+        if (myWatermark >= coordinatorWatermark) {
+            pending.clear();
+            caughtUpAt = now;
+            return;
+        }
+        writeLagMillis = HybridLogicalClock.physicalMillis(coordinatorWatermark)
+                - HybridLogicalClock.physicalMillis(myWatermark);
+        pending.addLast(new long[]{coordinatorWatermark, now});
+        if (pending.size() > MAX_PENDING) {
+            pending.removeFirst();
+        }
+    }
+
+    /**
+     * Records that this server's applied watermark moved forward, which catches up with the heartbeats whose
+     * watermark it has reached.
+     *
+     * @param myWatermark this server's applied watermark.
+     */
+    public synchronized void applied(long myWatermark) {
+        while (!pending.isEmpty() && pending.peekFirst()[0] <= myWatermark) {
+            caughtUpAt = pending.removeFirst()[1];
+        }
+    }
+
+    /**
+     * Forgets the lag. Called when the coordinator changes.
+     */
+    public synchronized void reset() {
+        pending.clear();
+        caughtUpAt = 0;
+        lagTicks = Long.MAX_VALUE;
+        writeLagMillis = 0;
+    }
+
+    /**
+     * Gets how many Lamport ticks this server was behind at the last heartbeat.
+     *
+     * @return the lag in ticks, {@code Long.MAX_VALUE} if no heartbeat has been received.
+     */
+    public synchronized long getLagTicks() {
+        return lagTicks;
+    }
+
+    /**
+     * Gets how much older the newest operation this server had applied was than the coordinator's, at the last
+     * heartbeat.
+     *
+     * @return the write lag in milliseconds.
+     */
+    public synchronized long getWriteLagMillis() {
+        return writeLagMillis;
+    }
+
+    /**
+     * Gets how long ago this server was last known to have everything the coordinator had.
+     *
+     * @return the staleness in milliseconds, {@code Long.MAX_VALUE} if it has never been known.
+     */
+    public synchronized long getStalenessMillis() {
+        if (caughtUpAt == 0) {
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() - caughtUpAt;
+    }
+}
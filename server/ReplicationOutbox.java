@@ -0,0 +1,385 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+
+import javax.rmi.ssl.SslRMIClientSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ReplicationOutbox class delivers the operations applied on this server to the other servers.
+ * <p>
+ * Every operation is first saved in one redis list per server ({@code outbox-<server address>}), so it is not
+ * lost when a server is down or when this server restarts, and the client that sent the write does not wait for
+ * the other servers. One delivery thread per server keeps a replication stream open to it (see
+ * {@link ReplicationFrame} and {@link ReplicationStreamServer}) and writes the operations in its list to the stream
+ * in order, without waiting for each one to be answered: up to {@code p4.stream.window} operations can be
+ * unacknowledged at a time, and the sender stops when the window is full until acknowledgements come back.
+ * Acknowledged operations are removed from the list. When a server cannot be reached the thread waits before
+ * trying again, starting at {@code p4.outbox.initialBackoff} milliseconds and doubling the wait after every
+ * failure up to {@code p4.outbox.maxBackoff} milliseconds.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ReplicationOutbox {
+    private static final String OUTBOX_KEY_PREFIX = "outbox-";
+    private static final int BATCH_SIZE = Integer.getInteger("p4.outbox.batchSize", 100);
+    private static final long INITIAL_BACKOFF = Long.getLong("p4.outbox.initialBackoff", 100);
+    private static final long MAX_BACKOFF = Long.getLong("p4.outbox.maxBackoff", 10000);
+    private static final int WINDOW = Integer.getInteger("p4.stream.window", 1000);
+
+    private final JedisPool pool = new JedisPool("localhost", 6379);
+    private final String serverAddr;
+    private final int port;
+    private final Map<String, Delivery> deliveries = new HashMap<String, Delivery>();
+
+    /**
+     * Constructs the outbox and starts a delivery thread for every other server. Operations left in the outbox
+     * from before a restart are delivered first.
+     *
+     * @param serverAddr  the address of this server.
+     * @param serverAddrs the addresses of all servers.
+     * @param port        the replication port of the other servers.
+     */
+    public ReplicationOutbox(String serverAddr, List<String> serverAddrs, int port) {
+        this.serverAddr = serverAddr;
+        this.port = port;
+        for (String otherServerAddr : serverAddrs) {
+            if (!otherServerAddr.equals(serverAddr)) {
+                Delivery delivery = new Delivery(otherServerAddr);
+                deliveries.put(otherServerAddr, delivery);
+                Thread thread = new Thread(delivery, "outbox-" + otherServerAddr);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Saves an operation in the outbox of every other server.
+     *
+     * @param operation the operation.
+     */
+    public void add(UserDbOperation operation) {
+        String json = operation.toJson();
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String otherServerAddr : deliveries.keySet()) {
+                pipeline.rpush(OUTBOX_KEY_PREFIX + otherServerAddr, json);
+            }
+            pipeline.sync();
+        }
+        for (Delivery delivery : deliveries.values()) {
+            delivery.wake(false);
+        }
+    }
+
+    /**
+     * Saves many operations in the outbox of every other server with one redis pipeline, for bulk writes.
+     *
+     * @param operations the operations, in the order they were applied.
+     */
+    public void addAll(List<UserDbOperation> operations) {
+        String[] jsons = new String[operations.size()];
+        for (int i = 0; i < jsons.length; i++) {
+            jsons[i] = operations.get(i).toJson();
+        }
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String otherServerAddr : deliveries.keySet()) {
+                pipeline.rpush(OUTBOX_KEY_PREFIX + otherServerAddr, jsons);
+            }
+            pipeline.sync();
+        }
+        for (Delivery delivery : deliveries.values()) {
+            delivery.wake(false);
+        }
+    }
+
+    /**
+     * Tries to deliver to a server right away, without waiting for its backoff to end. Called when the server is
+     * known to be alive again.
+     *
+     * @param addr the address of the server.
+     */
+    public void wake(String addr) {
+        Delivery delivery = deliveries.get(addr);
+        if (delivery != null) {
+            delivery.wake(true);
+        }
+    }
+
+    /**
+     * Gets the number of operations waiting to be delivered to every other server.
+     *
+     * @return the outbox depth of every other server.
+     */
+    public HashMap<String, Long> getDepths() {
+        HashMap<String, Long> depths = new HashMap<String, Long>();
+        try (Jedis jedis = pool.getResource()) {
+            for (String otherServerAddr : deliveries.keySet()) {
+                depths.put(otherServerAddr, jedis.llen(OUTBOX_KEY_PREFIX + otherServerAddr));
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Gets the number of operations waiting to be delivered to all other servers together, with one redis round
+     * trip.
+     *
+     * @return the total outbox depth.
+     */
+    public long getTotalDepth() {
+        ArrayList<Response<Long>> lengths = new ArrayList<Response<Long>>();
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String otherServerAddr : deliveries.keySet()) {
+                lengths.add(pipeline.llen(OUTBOX_KEY_PREFIX + otherServerAddr));
+            }
+            pipeline.sync();
+        }
+        long total = 0;
+        for (Response<Long> length : lengths) {
+            total += length.get();
+        }
+        return total;
+    }
+
+    /**
+     * Delivers the outbox of one server over its replication stream.
+     */
+    private class Delivery implements Runnable {
+        private final String addr;
+        private final String key;
+        private long backoff = 0;
+        private long retryAt = 0;
+        private boolean pending = true;
+        /**
+         * the current stream; operations are numbered from 1 on every connection, and the list entry of the
+         * operation numbered n is at index {@code n - trimmed - 1}
+         */
+        private Socket socket;
+        private DataOutputStream out;
+        private int connection = 0;
+        private long sent = 0;
+        private long acked = 0;
+        private long trimmed = 0;
+        private boolean broken = false;
+
+        Delivery(String addr) {
+            this.addr = addr;
+            this.key = OUTBOX_KEY_PREFIX + addr;
+        }
+
+        /**
+         * Tells the thread that there may be something to deliver.
+         *
+         * @param resetBackoff true to try again right away even after a failure.
+         */
+        synchronized void wake(boolean resetBackoff) {
+            pending = true;
+            if (resetBackoff) {
+                backoff = 0;
+                retryAt = 0;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long ackedNow;
+                boolean send;
+                try {
+                    synchronized (this) {
+                        long now = System.currentTimeMillis();
+                        while (now < retryAt || !(broken || acked > trimmed || (pending && sent - acked < WINDOW))) {
+                            if (now < retryAt) {
+                                wait(retryAt - now);
+                            } else {
+                                wait();
+                            }
+                            now = System.currentTimeMillis();
+                        }
+                        ackedNow = acked;
+                        send = !broken && pending && sent - acked < WINDOW;
+                        if (send) {
+                            pending = false;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    closeStream();
+                    return;
+                }
+                try {
+                    trim(ackedNow);
+                    if (isBroken()) {
+                        closeStream();
+                        failed();
+                    } else if (send) {
+                        sendBatch();
+                    }
+                } catch (IOException | JedisException e) {
+                    System.out.println("could not deliver to " + addr + ", retrying in " + nextBackoff() + " ms: " + e);
+                    closeStream();
+                    failed();
+                }
+            }
+        }
+
+        /**
+         * Removes the acknowledged operations from the head of the list. Only this thread removes from the head,
+         * new operations are added at the tail.
+         *
+         * @param ackedNow the number of operations acknowledged on this connection.
+         */
+        private void trim(long ackedNow) {
+            if (ackedNow > trimmed) {
+                try (Jedis jedis = pool.getResource()) {
+                    jedis.ltrim(key, ackedNow - trimmed, -1);
+                }
+                trimmed = ackedNow;
+            }
+        }
+
+        /**
+         * Sends the next operations of the list, as many as the window allows.
+         *
+         * @throws IOException if the stream cannot be opened or written.
+         */
+        private void sendBatch() throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            int room;
+            synchronized (this) {
+                room = (int) Math.min(BATCH_SIZE, WINDOW - (sent - acked));
+            }
+            List<String> batch;
+            try (Jedis jedis = pool.getResource()) {
+                batch = jedis.lrange(key, sent - trimmed, sent - trimmed + room - 1);
+            }
+            for (String json : batch) {
+                ReplicationFrame.writeOperation(out, sent + 1, json);
+                synchronized (this) {
+                    sent++;
+                }
+            }
+            out.flush();
+            if (batch.size() == room) {
+                /**
+                 * there may be more in the list
+                 */
+                synchronized (this) {
+                    pending = true;
+                }
+            }
+        }
+
+        /**
+         * Opens the stream to the server and starts reading its acknowledgements.
+         *
+         * @throws IOException if the server cannot be reached.
+         */
+        private void connect() throws IOException {
+            Socket newSocket = new SslRMIClientSocketFactory().createSocket(addr, port);
+            newSocket.setTcpNoDelay(true);
+            DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+            ReplicationFrame.writeHello(newOut, serverAddr);
+            newOut.flush();
+            int current;
+            synchronized (this) {
+                socket = newSocket;
+                out = newOut;
+                current = ++connection;
+            }
+            Thread reader = new Thread(() -> readAcks(newSocket, current), "outbox-ack-" + addr);
+            reader.setDaemon(true);
+            reader.start();
+            System.out.println("replication stream to " + addr + " opened");
+        }
+
+        /**
+         * Reads the acknowledgements of one connection until it is closed.
+         *
+         * @param ackSocket the connection.
+         * @param current   the number of the connection, to ignore a connection that has been replaced.
+         */
+        private void readAcks(Socket ackSocket, int current) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(ackSocket.getInputStream()));
+                while (true) {
+                    ReplicationFrame frame = ReplicationFrame.read(in);
+                    if (frame.getType() != ReplicationFrame.ACK) {
+                        throw new IOException("unexpected replication frame type " + frame.getType());
+                    }
+                    synchronized (this) {
+                        if (current != connection) {
+                            return;
+                        }
+                        acked = Math.max(acked, frame.getSequence());
+                        backoff = 0;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (current == connection) {
+                        broken = true;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        private synchronized boolean isBroken() {
+            return broken;
+        }
+
+        /**
+         * Closes the stream. Operations that were sent but not acknowledged stay in the list and are sent again
+         * on the next connection; the receiver skips the ones it already applied.
+         */
+        private synchronized void closeStream() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+            socket = null;
+            out = null;
+            connection++;
+            sent = 0;
+            acked = 0;
+            trimmed = 0;
+            broken = false;
+        }
+
+        private synchronized long nextBackoff() {
+            return backoff == 0 ? INITIAL_BACKOFF : Math.min(backoff * 2, MAX_BACKOFF);
+        }
+
+        private synchronized void failed() {
+            backoff = nextBackoff();
+            retryAt = System.currentTimeMillis() + backoff;
+            pending = true;
+        }
+    }
+}
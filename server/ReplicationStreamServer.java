@@ -0,0 +1,134 @@
+package p4.server;
+
+import javax.rmi.ssl.SslRMIServerSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The ReplicationStreamServer class receives the replication streams of the other servers.
+ * <p>
+ * It listens on the replication port with SSL and client authentication: a sender must present a certificate
+ * the server trusts, which the servers have (the server keystore) and clients do not. A connection is also only
+ * accepted from the address of one of the servers, with a hello naming one of them; any other connection, and
+ * any malformed frame, closes it. Every incoming stream is served on its own thread. Operation frames that have already arrived are applied together (see
+ * {@link IdServerForServer#applyReplicatedOperations}), and one acknowledgement is sent back for all of them,
+ * so a sender that keeps many operations on their way gets few acknowledgements.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ReplicationStreamServer {
+    private static final int MAX_BATCH = Integer.getInteger("p4.outbox.batchSize", 100);
+
+    private final int port;
+    private final IdServerForServer serverForServer;
+    private final List<String> serverAddrs;
+    /**
+     * the addresses of the servers and every IP address they resolve to
+     */
+    private final Set<String> serverHosts = new HashSet<String>();
+
+    /**
+     * Constructs the stream server.
+     *
+     * @param port            the replication port.
+     * @param serverForServer the server side of this server, which applies the operations.
+     * @param serverAddrs     the addresses of all servers, the only ones streams are accepted from.
+     */
+    public ReplicationStreamServer(int port, IdServerForServer serverForServer, List<String> serverAddrs) {
+        this.port = port;
+        this.serverForServer = serverForServer;
+        this.serverAddrs = serverAddrs;
+        for (String addr : serverAddrs) {
+            serverHosts.add(addr);
+            try {
+                for (InetAddress address : InetAddress.getAllByName(addr)) {
+                    serverHosts.add(address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                System.out.println("cannot resolve server " + addr + ", its replication streams are refused");
+            }
+        }
+    }
+
+    /**
+     * Starts listening for streams.
+     *
+     * @throws IOException if the port cannot be opened.
+     */
+    public void start() throws IOException {
+        ServerSocket serverSocket = new SslRMIServerSocketFactory(null, null, true).createServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread = new Thread(() -> serve(socket), "replication-in");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    System.out.println("replication stream accept failed: " + e);
+                }
+            }
+        }, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("replication streams on port " + port);
+    }
+
+    /**
+     * Reads one stream until it is closed.
+     *
+     * @param socket the connection.
+     */
+    private void serve(Socket socket) {
+        String origin = socket.getInetAddress().getHostAddress();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            if (!serverHosts.contains(origin)) {
+                throw new IOException("replication stream refused, " + origin + " is not a server");
+            }
+            ReplicationFrame hello = ReplicationFrame.read(in);
+            if (hello.getType() != ReplicationFrame.HELLO) {
+                throw new IOException("replication stream did not start with hello");
+            }
+            if (!serverAddrs.contains(hello.getText())) {
+                throw new IOException("replication stream refused, " + hello.getText() + " is not a server");
+            }
+            origin = hello.getText();
+            System.out.println("replication stream from " + origin + " opened");
+            while (true) {
+                ArrayList<UserDbOperation> operations = new ArrayList<UserDbOperation>();
+                long lastSequence = 0;
+                /**
+                 * waiting for one frame, then taking the frames that have already arrived
+                 */
+                do {
+                    ReplicationFrame frame = ReplicationFrame.read(in);
+                    if (frame.getType() != ReplicationFrame.OPERATION) {
+                        throw new IOException("unexpected replication frame type " + frame.getType());
+                    }
+                    operations.add(UserDbOperation.fromJson(frame.getText()));
+                    lastSequence = frame.getSequence();
+                } while (in.available() > 0 && operations.size() < MAX_BATCH);
+                serverForServer.applyReplicatedOperations(operations);
+                ReplicationFrame.writeAck(out, lastSequence);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("replication stream from " + origin + " closed: " + e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package p4.server;
+
+/**
+ * The RequestClass enum groups the requests a server serves by what they cost, for admission control and for
+ * the executor each kind runs on (see {@link Bulkheads}).
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public enum RequestClass {
+    /**
+     * lookups and reverse lookups, of one user or of a batch of keys
+     */
+    POINT_READ,
+    /**
+     * requests that scan every user: the listings and export chunks
+     */
+    LISTING,
+    /**
+     * creates, modifies, deletes and imports
+     */
+    WRITE,
+    /**
+     * the change feed's polls, which wait for changes, and its commits
+     */
+    CHANGE_FEED,
+    /**
+     * batches of operations replicated from the other servers
+     */
+    REPLICATION,
+    /**
+     * the liveness, election and lease calls between servers, which are never turned away
+     */
+    CONTROL
+}
@@ -0,0 +1,76 @@
+package p4.server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The RequestStats class counts the client requests a server is working on and keeps the times of the most recent
+ * ones, for the server's {@link LoadReport}.
+ * <p>
+ * The times of the last {@code p4.stats.samples} (1024) requests are kept in a ring, so the 99th percentile
+ * follows the current load instead of the whole life of the server.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class RequestStats {
+    private static final int SAMPLES = Integer.getInteger("p4.stats.samples", 1024);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long[] latencies = new long[SAMPLES];
+    private int next;
+    private int count;
+
+    /**
+     * Records the start of a request.
+     *
+     * @return the start time, to pass to {@link #end(long)}.
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a request.
+     *
+     * @param start the start time returned by {@link #begin()}.
+     */
+    public void end(long start) {
+        long nanos = System.nanoTime() - start;
+        inFlight.decrementAndGet();
+        synchronized (latencies) {
+            latencies[next] = nanos;
+            next = (next + 1) % latencies.length;
+            count = Math.min(count + 1, latencies.length);
+        }
+    }
+
+    /**
+     * Gets the number of requests being worked on.
+     *
+     * @return the number of requests.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the 99th percentile time of the recent requests.
+     *
+     * @return the time in milliseconds, 0 if no request was made yet.
+     */
+    public double getP99Millis() {
+        long[] sorted;
+        synchronized (latencies) {
+            if (count == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(latencies, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(sorted.length * 0.99) - 1;
+        return sorted[Math.max(0, index)] / 1000000.0;
+    }
+}
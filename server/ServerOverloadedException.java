@@ -0,0 +1,40 @@
+package p4.server;
+
+import java.rmi.RemoteException;
+
+/**
+ * The ServerOverloadedException is thrown to a client whose request is turned away by admission control, because
+ * the client or the server as a whole is sending more requests of its kind than the server accepts, or whose
+ * linearizable read the coordinator cannot answer until it holds its read lease again (see {@link LeaderLease}).
+ * <p>
+ * The request was not run, so it is always safe to send it again, to this server after
+ * {@link #getRetryAfterMillis()} or to another server right away.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class ServerOverloadedException extends RemoteException {
+    private static final long serialVersionUID = 6120748862339576614L;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs the exception.
+     *
+     * @param message          why the request was turned away.
+     * @param retryAfterMillis how long to wait before sending the request again, in milliseconds.
+     */
+    public ServerOverloadedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Gets how long to wait before sending the request to this server again.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
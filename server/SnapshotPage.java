@@ -0,0 +1,59 @@
+package p4.server;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The SnapshotPage class represents one fixed-size page of the user database sent from the coordinator
+ * to a server that is copying the full database.
+ * <p>
+ * Each page carries the redis SCAN cursor to ask for the next page, so a transfer can be resumed from the
+ * last page that was saved instead of starting over.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class SnapshotPage implements Serializable {
+    private static final long serialVersionUID = 4120317760943651212L;
+    ArrayList<User> users;
+    String nextCursor;
+
+    /**
+     * Constructs a page of the snapshot.
+     *
+     * @param users      the users on this page.
+     * @param nextCursor the cursor to ask for the next page, "0" when this is the last page.
+     */
+    public SnapshotPage(ArrayList<User> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the users on this page.
+     *
+     * @return the users.
+     */
+    public ArrayList<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the cursor to ask for the next page.
+     *
+     * @return the next cursor.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks if this is the last page of the snapshot.
+     *
+     * @return true if there are no more pages.
+     */
+    public boolean isLastPage() {
+        return "0".equals(nextCursor);
+    }
+}
@@ -2,6 +2,7 @@ package p4.server;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -137,4 +138,21 @@ public class User implements Serializable {
         User user = new User(loginName, realName, encryptedPassword, uuid, ipAddress, createdAt, updatedAt);
         return user;
     }
+
+    /**
+     * Converts the user to the map that is stored as a redis hash, the reverse of {@link #userFromMap(Map)}.
+     *
+     * @return the user's fields as strings.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> userMap = new HashMap<String, String>();
+        userMap.put("loginName", loginName);
+        userMap.put("realName", realName);
+        userMap.put("encryptedPassword", encryptedPassword);
+        userMap.put("uuid", String.valueOf(uuid));
+        userMap.put("ipAddress", ipAddress);
+        userMap.put("createdAt", String.valueOf(createdAt));
+        userMap.put("updatedAt", updatedAt.toString());
+        return userMap;
+    }
 }
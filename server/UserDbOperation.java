@@ -1,6 +1,12 @@
 package p4.server;
 
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -11,7 +17,15 @@ import java.util.UUID;
  * @version 1.0
  *
  */
-public class UserDbOperation {
+public class UserDbOperation implements Serializable {
+    private static final long serialVersionUID = 2209813766214958370L;
+    /**
+     * operation types recorded in the operation log
+     */
+    public static final String CREATE = "create";
+    public static final String MODIFY = "modify";
+    public static final String DELETE = "delete";
+
     String operationType;
     UUID uuid;
     String loginName;
@@ -22,6 +36,16 @@ public class UserDbOperation {
     LocalDateTime createdAt;
     LocalDateTime updatedAt;
     long operationTimestamp;
+    /**
+     * the server that first applied the operation and its Lamport clock value there; together they identify
+     * the operation on every server
+     */
+    String originServer;
+    long originClock;
+    /**
+     * the hybrid logical clock timestamp of the operation, 0 for operations logged before it was stamped
+     */
+    long hlc;
 
     /**
      * Constructor to creata operation
@@ -47,6 +71,54 @@ public class UserDbOperation {
         this.createdAt = createdAt;
         this.updatedAt = updatedAt;
         this.operationTimestamp = operationTimestamp;
+        this.originClock = operationTimestamp;
+    }
+
+    /**
+     * Sets the identity of the operation: the server that first applied it and its Lamport clock value there.
+     *
+     * @param originServer the address of the server that first applied the operation.
+     * @param originClock  the Lamport clock value of the operation on that server.
+     */
+    public void setOrigin(String originServer, long originClock) {
+        this.originServer = originServer;
+        this.originClock = originClock;
+    }
+
+    /**
+     * Stamps the operation with a hybrid logical clock timestamp.
+     *
+     * @param hlc the timestamp (see {@link HybridLogicalClock}).
+     */
+    public void setHlc(long hlc) {
+        this.hlc = hlc;
+    }
+
+    /**
+     * Gets the hybrid logical clock timestamp of the operation.
+     *
+     * @return the timestamp, 0 if the operation was not stamped.
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    /**
+     * Gets the address of the server that first applied the operation.
+     *
+     * @return the origin server, or {@code null} for operations logged without an identity.
+     */
+    public String getOriginServer() {
+        return originServer;
+    }
+
+    /**
+     * Gets the Lamport clock value of the operation on the server that first applied it.
+     *
+     * @return the origin clock.
+     */
+    public long getOriginClock() {
+        return originClock;
     }
 
     /**
@@ -67,9 +139,26 @@ public class UserDbOperation {
                 ", createdAt=" + createdAt +
                 ", updatedAt=" + updatedAt +
                 ", operationTimestamp=" + operationTimestamp +
+                ", origin=" + originServer + "@" + originClock +
+                ", hlc=" + hlc +
                 '}';
     }
 
+    /**
+     * Returns a copy of this operation with another Lamport clock value, for logging it on a server that
+     * applied it at a different clock value.
+     *
+     * @param operationTimestamp the Lamport clock value.
+     * @return the copy.
+     */
+    public UserDbOperation withOperationTimestamp(long operationTimestamp) {
+        UserDbOperation operation = new UserDbOperation(operationType, uuid, loginName, newLoginName, realName,
+                password, ipAddress, createdAt, updatedAt, operationTimestamp);
+        operation.setOrigin(originServer, originClock);
+        operation.setHlc(hlc);
+        return operation;
+    }
+
     /**
      * Gets the operation type
      * @return the operation type.
@@ -204,4 +293,64 @@ public class UserDbOperation {
                 ", operationTimestamp=" + operationTimestamp +
                 '}';
     }
+
+    /**
+     * Converts the operation to a JSON string so that it can be stored in the redis operation log.
+     * LocalDateTime and UUID values are kept in their string form, the same way {@code setUser} stores users.
+     *
+     * @return the JSON representation of the operation.
+     */
+    public String toJson() {
+        Map<String, String> operationMap = new HashMap<String, String>();
+        operationMap.put("operationType", operationType);
+        operationMap.put("uuid", uuid == null ? null : uuid.toString());
+        operationMap.put("loginName", loginName);
+        operationMap.put("newLoginName", newLoginName);
+        operationMap.put("realName", realName);
+        operationMap.put("password", password);
+        operationMap.put("ipAddress", ipAddress);
+        operationMap.put("createdAt", createdAt == null ? null : createdAt.toString());
+        operationMap.put("updatedAt", updatedAt == null ? null : updatedAt.toString());
+        operationMap.put("operationTimestamp", Long.toString(operationTimestamp));
+        operationMap.put("originServer", originServer);
+        operationMap.put("originClock", Long.toString(originClock));
+        operationMap.put("hlc", Long.toString(hlc));
+        return new Gson().toJson(operationMap);
+    }
+
+    /**
+     * Rebuilds an operation from the JSON string created by {@link #toJson()}.
+     *
+     * @param json the JSON representation of the operation.
+     * @return the operation.
+     */
+    public static UserDbOperation fromJson(String json) {
+        Map<String, String> operationMap = new Gson().fromJson(json, new TypeToken<Map<String, String>>() {
+        }.getType());
+        String uuid = operationMap.get("uuid");
+        String createdAt = operationMap.get("createdAt");
+        String updatedAt = operationMap.get("updatedAt");
+        UserDbOperation operation = new UserDbOperation(operationMap.get("operationType"),
+                uuid == null ? null : UUID.fromString(uuid),
+                operationMap.get("loginName"),
+                operationMap.get("newLoginName"),
+                operationMap.get("realName"),
+                operationMap.get("password"),
+                operationMap.get("ipAddress"),
+                createdAt == null ? null : LocalDateTime.parse(createdAt),
+                updatedAt == null ? null : LocalDateTime.parse(updatedAt),
+                Long.parseLong(operationMap.get("operationTimestamp")));
+        /**
+         * operations logged before they had an identity keep their timestamp as origin clock
+         */
+        String originClock = operationMap.get("originClock");
+        if (originClock != null) {
+            operation.setOrigin(operationMap.get("originServer"), Long.parseLong(originClock));
+        }
+        String hlc = operationMap.get("hlc");
+        if (hlc != null) {
+            operation.setHlc(Long.parseLong(hlc));
+        }
+        return operation;
+    }
 }
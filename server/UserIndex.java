@@ -0,0 +1,228 @@
+package p4.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The UserIndex class keeps the redis hash {@code login_index}, which maps every login name to the uuid of its
+ * user, so a user can be found by login name without reading every user.
+ * <p>
+ * It also keeps one redis set {@code user_range:<range>} per uuid range of the {@link MerkleTree} with the uuids of
+ * the users in that range, so the users of a range are found without a scan of every key, and it tells the merkle
+ * tree which ranges changed.
+ * </p>
+ * <p>
+ * Every place that saves or deletes a {@code user-<uuid>} hash updates the index with it. A login name is only
+ * removed from the index if it still points to the same user, so removing an old entry never hides a newer user
+ * with the same name. Readers still check the login name of the user they find, so an entry left behind by a
+ * crash between the two writes is only a miss. The index is built from the users when a server starts without it.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class UserIndex {
+    public static final String INDEX_KEY = "login_index";
+    private static final String USER_KEY_PREFIX = "user-";
+    private static final String RANGE_KEY_PREFIX = "user_range:";
+    /**
+     * set to the number of ranges once the range sets hold every user
+     */
+    private static final String RANGES_BUILT_KEY = "user_range:built";
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    private UserIndex() {
+    }
+
+    /**
+     * Updates the index for a user that is about to be saved, removing its old login name if it was renamed.
+     * Call it before the user hash is written, while the old login name can still be read.
+     *
+     * @param jedis the redis connection.
+     * @param user  the user being saved.
+     */
+    public static void onSave(Jedis jedis, User user) {
+        onSave(jedis, user.getUuid().toString(), user.getLoginName());
+    }
+
+    /**
+     * Updates the index for a user whose login name is about to be saved.
+     *
+     * @param jedis     the redis connection.
+     * @param uuid      the uuid of the user.
+     * @param loginName the login name being saved.
+     */
+    public static void onSave(Jedis jedis, String uuid, String loginName) {
+        String oldLoginName = jedis.hget(USER_KEY_PREFIX + uuid, "loginName");
+        if (oldLoginName != null && !oldLoginName.equals(loginName)) {
+            remove(jedis, oldLoginName, uuid);
+        }
+        jedis.hset(INDEX_KEY, loginName, uuid);
+        jedis.sadd(rangeKeyOf(uuid), uuid);
+        MerkleTree.markDirty(uuid);
+    }
+
+    /**
+     * Updates the index for a user hash that is about to be deleted.
+     *
+     * @param jedis   the redis connection.
+     * @param userKey the key of the user hash.
+     */
+    public static void onDelete(Jedis jedis, String userKey) {
+        String uuid = userKey.substring(USER_KEY_PREFIX.length());
+        String loginName = jedis.hget(userKey, "loginName");
+        if (loginName != null) {
+            remove(jedis, loginName, uuid);
+        }
+        jedis.srem(rangeKeyOf(uuid), uuid);
+        MerkleTree.markDirty(uuid);
+    }
+
+    /**
+     * Adds a user to the index in a pipeline, for bulk loads of users that did not exist before.
+     *
+     * @param pipeline the redis pipeline.
+     * @param user     the user.
+     */
+    public static void add(Pipeline pipeline, User user) {
+        String uuid = user.getUuid().toString();
+        pipeline.hset(INDEX_KEY, user.getLoginName(), uuid);
+        pipeline.sadd(rangeKeyOf(uuid), uuid);
+        MerkleTree.markDirty(uuid);
+    }
+
+    /**
+     * Gets the uuids of the users in a uuid range of the merkle tree.
+     *
+     * @param jedis the redis connection.
+     * @param range the range.
+     * @return the uuids.
+     */
+    public static Set<String> uuidsInRange(Jedis jedis, int range) {
+        return jedis.smembers(rangeKey(range));
+    }
+
+    /**
+     * Deletes the whole index, for when every user is deleted at once. The empty range sets still hold every
+     * user, so they are not built again on the next start.
+     *
+     * @param jedis the redis connection.
+     */
+    public static void clear(Jedis jedis) {
+        String[] keys = new String[MerkleTree.LEAVES + 1];
+        keys[0] = INDEX_KEY;
+        for (int range = 0; range < MerkleTree.LEAVES; range++) {
+            keys[range + 1] = rangeKey(range);
+        }
+        jedis.del(keys);
+        jedis.set(RANGES_BUILT_KEY, String.valueOf(MerkleTree.LEAVES));
+        MerkleTree.markAllDirty();
+    }
+
+    /**
+     * Gets the uuids of login names.
+     *
+     * @param jedis      the redis connection.
+     * @param loginNames the login names.
+     * @return the uuid of every login name, in the same order, null for an unknown name.
+     */
+    public static List<String> uuidsOf(Jedis jedis, List<String> loginNames) {
+        return jedis.hmget(INDEX_KEY, loginNames.toArray(new String[0]));
+    }
+
+    /**
+     * Builds the login name index and the range sets from the users if they do not exist yet. The range sets are
+     * also built again when they were made for another number of ranges (see {@link MerkleTree#RANGE_DIGITS}).
+     *
+     * @param jedis the redis connection.
+     */
+    public static void buildIfMissing(Jedis jedis) {
+        boolean buildIndex = !jedis.exists(INDEX_KEY);
+        boolean buildRanges = !String.valueOf(MerkleTree.LEAVES).equals(jedis.get(RANGES_BUILT_KEY));
+        if (!buildIndex && !buildRanges) {
+            return;
+        }
+        if (buildRanges) {
+            deleteRangeSets(jedis);
+        }
+        int count = 0;
+        ScanParams params = new ScanParams().match(USER_KEY_PREFIX + "*").count(SCAN_PAGE_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> page = jedis.scan(cursor, params);
+            for (String userKey : page.getResult()) {
+                String loginName = jedis.hget(userKey, "loginName");
+                if (loginName != null) {
+                    String uuid = userKey.substring(USER_KEY_PREFIX.length());
+                    if (buildIndex) {
+                        jedis.hset(INDEX_KEY, loginName, uuid);
+                    }
+                    if (buildRanges) {
+                        jedis.sadd(rangeKeyOf(uuid), uuid);
+                    }
+                    count++;
+                }
+            }
+            cursor = page.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        jedis.set(RANGES_BUILT_KEY, String.valueOf(MerkleTree.LEAVES));
+        System.out.println("login name index and uuid ranges built for " + count + " users");
+    }
+
+    /**
+     * Removes a login name from the index if it still points to the given user.
+     *
+     * @param jedis     the redis connection.
+     * @param loginName the login name.
+     * @param uuid      the uuid of the user.
+     */
+    private static void remove(Jedis jedis, String loginName, String uuid) {
+        if (uuid.equals(jedis.hget(INDEX_KEY, loginName))) {
+            jedis.hdel(INDEX_KEY, loginName);
+        }
+    }
+
+    /**
+     * Deletes every range set, including the ones made for another number of ranges.
+     *
+     * @param jedis the redis connection.
+     */
+    private static void deleteRangeSets(Jedis jedis) {
+        ScanParams params = new ScanParams().match(RANGE_KEY_PREFIX + "*").count(SCAN_PAGE_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> page = jedis.scan(cursor, params);
+            for (String key : page.getResult()) {
+                if (!key.equals(RANGES_BUILT_KEY)) {
+                    jedis.del(key);
+                }
+            }
+            cursor = page.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+    }
+
+    /**
+     * Gets the key of the range set of a user.
+     *
+     * @param uuid the uuid of the user.
+     * @return the key.
+     */
+    private static String rangeKeyOf(String uuid) {
+        return rangeKey(MerkleTree.rangeOf(uuid));
+    }
+
+    /**
+     * Gets the key of a range set: the range in as many hex digits as pick it.
+     *
+     * @param range the range.
+     * @return the key.
+     */
+    private static String rangeKey(int range) {
+        return RANGE_KEY_PREFIX + String.format("%0" + MerkleTree.RANGE_DIGITS + "x", range);
+    }
+}
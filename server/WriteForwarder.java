@@ -0,0 +1,164 @@
+package p4.server;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The WriteForwarder class passes the writes that clients send to a server which is not the coordinator on to
+ * the coordinator, and hands the coordinator's responses back to the waiting clients.
+ * <p>
+ * Writes are put in a queue. A sender thread takes every write waiting in the queue, up to
+ * {@code p4.forward.batchSize}, and sends them to the coordinator in one call. Up to
+ * {@code p4.forward.maxInFlight} batches can be on their way at the same time, so new writes do not wait for the
+ * previous batch to be answered, and while that many batches are on their way new writes gather into the next
+ * batch. The calls use the cached stub of the coordinator, so they go over the connection RMI keeps open to it.
+ * </p>
+ * <p>
+ * A write whose batch cannot be delivered is not retried, because the coordinator may have applied it; the
+ * client is told to try again.
+ * </p>
+ *
+ * @author Sheikh Md Mushfiqur Rahman & Shaznin Sultana
+ * @version 1.0
+ */
+public class WriteForwarder {
+    private static final int BATCH_SIZE = Integer.getInteger("p4.forward.batchSize", 64);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("p4.forward.maxInFlight", 4);
+    private static final long TIMEOUT = Long.getLong("p4.forward.timeout", 5000);
+    private static final String NO_COORDINATOR = "no coordinator is available, please try again.";
+
+    private final String serverAddr;
+    private final IdServerForServer serverForServer;
+    private final PeerStubCache<IdServerInterfaceForServer> peerStubs;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<PendingWrite>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final ExecutorService senders = Executors.newFixedThreadPool(MAX_IN_FLIGHT, r -> {
+        Thread thread = new Thread(r, "write-forwarder-send");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a write forwarder and starts its sender thread.
+     *
+     * @param serverAddr      the address of this server.
+     * @param serverForServer the server side of this server, which knows the coordinator.
+     * @param peerStubs       the cached stubs of the other servers.
+     */
+    public WriteForwarder(String serverAddr, IdServerForServer serverForServer,
+                          PeerStubCache<IdServerInterfaceForServer> peerStubs) {
+        this.serverAddr = serverAddr;
+        this.serverForServer = serverForServer;
+        this.peerStubs = peerStubs;
+        Thread dispatcher = new Thread(this::dispatch, "write-forwarder");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Gets the number of writes waiting to be sent to the coordinator.
+     *
+     * @return the number of writes in the queue.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Passes a write on to the coordinator and waits for its response.
+     *
+     * @param write the write.
+     * @return the coordinator's response to the write.
+     */
+    public String forward(ForwardedWrite write) {
+        PendingWrite pending = new PendingWrite(write);
+        queue.add(pending);
+        try {
+            return pending.response.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return "the coordinator did not answer in time, please check and try again.";
+        } catch (ExecutionException e) {
+            System.out.println("could not forward a write: " + e.getCause());
+            return NO_COORDINATOR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NO_COORDINATOR;
+        }
+    }
+
+    /**
+     * Takes the waiting writes from the queue in batches and sends every batch on another thread.
+     */
+    private void dispatch() {
+        while (true) {
+            List<PendingWrite> batch = new ArrayList<PendingWrite>();
+            try {
+                inFlight.acquire();
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            senders.execute(() -> {
+                try {
+                    send(batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a batch of writes to the coordinator and completes the writes with its responses.
+     *
+     * @param batch the writes.
+     */
+    private void send(List<PendingWrite> batch) {
+        String coordinatorAddr = serverForServer.getCoordinator();
+        if (coordinatorAddr == null) {
+            for (PendingWrite pending : batch) {
+                pending.response.complete(NO_COORDINATOR);
+            }
+            return;
+        }
+        ArrayList<ForwardedWrite> writes = new ArrayList<ForwardedWrite>();
+        for (PendingWrite pending : batch) {
+            writes.add(pending.write);
+        }
+        try {
+            ArrayList<String> responses = peerStubs.call(coordinatorAddr, stub -> stub.applyForwardedWrites(writes));
+            System.out.println(serverAddr + " forwarded " + writes.size() + " writes to " + coordinatorAddr);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).response.complete(responses.get(i));
+            }
+        } catch (RemoteException | NotBoundException e) {
+            for (PendingWrite pending : batch) {
+                pending.response.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * A write waiting for the coordinator's response.
+     */
+    private static class PendingWrite {
+        private final ForwardedWrite write;
+        private final CompletableFuture<String> response = new CompletableFuture<String>();
+
+        PendingWrite(ForwardedWrite write) {
+            this.write = write;
+        }
+    }
+}